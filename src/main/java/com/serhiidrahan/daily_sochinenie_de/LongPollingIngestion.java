@@ -0,0 +1,43 @@
+package com.serhiidrahan.daily_sochinenie_de;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.longpolling.BotSession;
+import org.telegram.telegrambots.longpolling.interfaces.LongPollingUpdateConsumer;
+import org.telegram.telegrambots.longpolling.starter.AfterBotRegistration;
+import org.telegram.telegrambots.longpolling.starter.SpringLongPollingBot;
+
+/**
+ * Receives updates by long polling, the default ingestion mode.
+ */
+@Component
+@ConditionalOnProperty(name = "telegrambot.ingestion", havingValue = "long-polling", matchIfMissing = true)
+public class LongPollingIngestion implements SpringLongPollingBot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LongPollingIngestion.class);
+
+    private final SochinenieBot sochinenieBot;
+    private final String botToken;
+
+    public LongPollingIngestion(SochinenieBot sochinenieBot, @Value("${telegrambot.token}") String botToken) {
+        this.sochinenieBot = sochinenieBot;
+        this.botToken = botToken;
+    }
+
+    @Override
+    public String getBotToken() {
+        return botToken;
+    }
+
+    @Override
+    public LongPollingUpdateConsumer getUpdatesConsumer() {
+        return sochinenieBot;
+    }
+
+    @AfterBotRegistration
+    public void afterRegistration(BotSession botSession) {
+        LOGGER.info("Registered bot running state is: {}", botSession.isRunning());
+    }
+}
@@ -1,26 +1,30 @@
 package com.serhiidrahan.daily_sochinenie_de;
 
-import com.serhiidrahan.daily_sochinenie_de.entity.Assignment;
-import com.serhiidrahan.daily_sochinenie_de.entity.AssignmentTopic;
+import com.serhiidrahan.daily_sochinenie_de.dto.ActiveAssignment;
+import com.serhiidrahan.daily_sochinenie_de.dto.CatalogTopic;
+import com.serhiidrahan.daily_sochinenie_de.dto.SubmissionJob;
+import com.serhiidrahan.daily_sochinenie_de.dto.SubmissionEvaluation;
 import com.serhiidrahan.daily_sochinenie_de.entity.User;
 import com.serhiidrahan.daily_sochinenie_de.enums.AssignmentState;
 import com.serhiidrahan.daily_sochinenie_de.enums.Language;
+import com.serhiidrahan.daily_sochinenie_de.enums.PreValidationVerdict;
+import com.serhiidrahan.daily_sochinenie_de.enums.SubmissionKind;
 import com.serhiidrahan.daily_sochinenie_de.enums.ValidationError;
-import com.serhiidrahan.daily_sochinenie_de.exception.ChatGPTException;
+import com.serhiidrahan.daily_sochinenie_de.infrastructure.TelegramDispatcher;
+import com.serhiidrahan.daily_sochinenie_de.infrastructure.UserLeases;
+import com.serhiidrahan.daily_sochinenie_de.infrastructure.UserMailboxes;
 import com.serhiidrahan.daily_sochinenie_de.service.AssignmentService;
 import com.serhiidrahan.daily_sochinenie_de.service.ChatGPTService;
 import com.serhiidrahan.daily_sochinenie_de.service.LocalizedMessagesService;
+import com.serhiidrahan.daily_sochinenie_de.service.PhotoPreparationService;
+import com.serhiidrahan.daily_sochinenie_de.service.SubmissionJobQueue;
+import com.serhiidrahan.daily_sochinenie_de.service.SubmissionPreValidator;
 import com.serhiidrahan.daily_sochinenie_de.service.UserService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
-import org.telegram.telegrambots.longpolling.BotSession;
 import org.telegram.telegrambots.longpolling.interfaces.LongPollingUpdateConsumer;
-import org.telegram.telegrambots.longpolling.starter.AfterBotRegistration;
-import org.telegram.telegrambots.longpolling.starter.SpringLongPollingBot;
-import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
 import org.telegram.telegrambots.meta.api.methods.ActionType;
 import org.telegram.telegrambots.meta.api.methods.GetFile;
 import org.telegram.telegrambots.meta.api.methods.send.SendChatAction;
@@ -37,106 +41,274 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKe
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
+/**
+ * Handles incoming updates, whichever way they arrive: {@link LongPollingIngestion} or {@link TelegramWebhookController}.
+ */
 @Component
-public class SochinenieBot implements SpringLongPollingBot, LongPollingSingleThreadUpdateConsumer {
+public class SochinenieBot implements LongPollingUpdateConsumer {
     private static final Logger LOGGER = LoggerFactory.getLogger(SochinenieBot.class);
     private static final int MIN_SUBMISSION_LENGTH = 30;
     private static final int MAX_SUBMISSION_LENGTH = 4000;
     private static final int TELEGRAM_MESSAGE_LIMIT = 4000;
     private final TelegramClient telegramClient;
+    private final TelegramDispatcher telegramDispatcher;
     private final UserService userService;
     private final AssignmentService assignmentService;
     private final ChatGPTService chatGPTService;
     private final LocalizedMessagesService localizedMessagesService;
-    private final String botToken;
-
-    private final ConcurrentHashMap<Long, Boolean> usersExpectingResponse = new ConcurrentHashMap<>();
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
-
-
-    public SochinenieBot(UserService userService, AssignmentService assignmentService, ChatGPTService chatGPTService,
-                         LocalizedMessagesService localizedMessagesService, @Value("${telegrambot.token}") String botToken) {
+    private final PhotoPreparationService photoPreparationService;
+    private final boolean streamFeedback;
+    private final long feedbackEditIntervalMillis;
+    private final boolean fusedEvaluation;
+
+    private final ExecutorService executorService;
+    private final UserMailboxes userMailboxes;
+    private final UserLeases userLeases;
+    private final SubmissionJobQueue submissionJobQueue;
+    private final SubmissionPreValidator submissionPreValidator;
+
+
+    public SochinenieBot(TelegramClient telegramClient, TelegramDispatcher telegramDispatcher,
+                         UserService userService, AssignmentService assignmentService, ChatGPTService chatGPTService,
+                         LocalizedMessagesService localizedMessagesService, PhotoPreparationService photoPreparationService,
+                         ExecutorService botExecutor,
+                         UserMailboxes userMailboxes, UserLeases userLeases, SubmissionJobQueue submissionJobQueue,
+                         SubmissionPreValidator submissionPreValidator,
+                         @Value("${telegrambot.feedback.streaming}") boolean streamFeedback,
+                         @Value("${telegrambot.feedback.edit-interval-ms}") long feedbackEditIntervalMillis,
+                         @Value("${telegrambot.evaluation.fused}") boolean fusedEvaluation) {
+        this.telegramClient = telegramClient;
+        this.telegramDispatcher = telegramDispatcher;
         this.userService = userService;
         this.assignmentService = assignmentService;
         this.chatGPTService = chatGPTService;
         this.localizedMessagesService = localizedMessagesService;
-        this.botToken = botToken;
-        this.telegramClient = new OkHttpTelegramClient(getBotToken());
+        this.photoPreparationService = photoPreparationService;
+        this.executorService = botExecutor;
+        this.userMailboxes = userMailboxes;
+        this.userLeases = userLeases;
+        this.submissionJobQueue = submissionJobQueue;
+        this.submissionPreValidator = submissionPreValidator;
+        this.streamFeedback = streamFeedback;
+        this.feedbackEditIntervalMillis = feedbackEditIntervalMillis;
+        this.fusedEvaluation = fusedEvaluation;
     }
 
+    /**
+     * Takes a whole batch of updates. The batch is only partitioned by user and queued, all handling happens
+     * in the users' mailboxes, so the polling thread never waits for any user's updates to be processed.
+     */
     @Override
-    public String getBotToken() {
-        return botToken;
-    }
+    public void consume(List<Update> updates) {
+        // Updates of one user are processed one at a time and in order, updates of different users in parallel
+        Map<Long, List<Update>> updatesByUser = new LinkedHashMap<>();
+        for (Update update : updates) {
+            org.telegram.telegrambots.meta.api.objects.User from = getSender(update);
+            if (from != null) {
+                updatesByUser.computeIfAbsent(from.getId(), id -> new ArrayList<>()).add(update);
+            }
+        }
 
-    @Override
-    public LongPollingUpdateConsumer getUpdatesConsumer() {
-        return this;
+        updatesByUser.forEach((userId, userUpdates) -> {
+            List<Supplier<CompletableFuture<?>>> tasks = userUpdates.stream()
+                    .<Supplier<CompletableFuture<?>>>map(update -> () -> handleLeased(userId, () -> handleUpdate(update)))
+                    .toList();
+            int accepted = userMailboxes.submitAll(userId, tasks);
+            if (accepted < tasks.size()) {
+                LOGGER.warn("Too many pending updates of user {}, dropping {} of them", userId, tasks.size() - accepted);
+                replyStillProcessing(userUpdates.get(userUpdates.size() - 1));
+            }
+        });
     }
 
-    @Override
+    /**
+     * Takes a single update, as delivered by the webhook.
+     */
     public void consume(Update update) {
+        consume(List.of(update));
+    }
+
+    private void replyStillProcessing(Update update) {
+        org.telegram.telegrambots.meta.api.objects.User from = getSender(update);
+        long chatId = update.hasMessage()
+                ? update.getMessage().getChatId()
+                : update.getCallbackQuery().getMessage().getChatId();
+        executorService.execute(() -> {
+            User user = userService.getOrCreateUser(from.getId(), from.getUserName(), chatId);
+            sendMessage(chatId, localizedMessagesService.stillProcessing(user.getLanguage()));
+        });
+    }
+
+    /**
+     * @return the user who sent the message or pressed the button, or null for updates the bot doesn't handle
+     */
+    private static org.telegram.telegrambots.meta.api.objects.User getSender(Update update) {
         if (update.hasMessage()) {
-            long userId = update.getMessage().getFrom().getId();
+            return update.getMessage().getFrom();
+        } else if (update.hasCallbackQuery()) {
+            return update.getCallbackQuery().getFrom();
+        }
+        return null;
+    }
 
-            // Prevent multiple requests from the same user
-            if (isUserRequestProcessing(userId)) {
-                LOGGER.warn("Received message from user {} before the previous one got processed", userId);
-                return;
-            }
-            markUserAsProcessing(userId);
-
-            // Process asynchronously
-            executorService.submit(() -> {
-                try {
-                    if (update.getMessage().hasPhoto()) {
-                        handlePhotoMessage(update.getMessage());
-                    } else if (update.getMessage().hasText()) {
-                        handleTextMessage(update.getMessage());
+    /**
+     * Evaluates a queued submission in the user's mailbox and under their lease, just like an update of the user.
+     *
+     * @return future that completes once the feedback has been delivered, or exceptionally if the evaluation
+     * failed and the job is to be retried
+     */
+    public CompletableFuture<Void> runSubmissionJob(SubmissionJob job) {
+        return userMailboxes.enqueue(job.telegramUserId(),
+                () -> handleLeased(job.telegramUserId(), () -> processSubmissionJob(job)));
+    }
+
+    /**
+     * Tells the user that their submission could not be evaluated, once its attempts have run out.
+     */
+    public void failSubmissionJob(SubmissionJob job) {
+        LOGGER.error("Giving up on submission job {} of user {}", job.id(), job.telegramUserId());
+        userService.findUser(job.telegramUserId()).ifPresent(user -> sendMessage(job.chatId(),
+                job.kind() == SubmissionKind.PHOTO
+                        ? localizedMessagesService.errorProcessingImage(user.getLanguage())
+                        : localizedMessagesService.errorGettingFeedback(user.getLanguage())));
+    }
+
+    /**
+     * Runs the handling while holding the user's lease, so no other instance processes the user meanwhile.
+     * If another instance has processed the user since, what's cached about them is reloaded first.
+     */
+    private CompletableFuture<Void> handleLeased(long telegramUserId, Supplier<CompletableFuture<Void>> handling) {
+        return userLeases.acquire(telegramUserId)
+                .thenCompose(changedElsewhere -> {
+                    if (changedElsewhere) {
+                        userService.evict(telegramUserId);
+                        userService.findUser(telegramUserId).ifPresent(assignmentService::reloadActiveAssignment);
                     }
-                } finally {
-                    clearUserProcessingStatus(userId);
-                }
-            });
-        } else if (update.hasCallbackQuery()) {
-            handleCallbackQuery(update.getCallbackQuery());
+                    return handling.get();
+                })
+                .whenComplete((result, error) -> userLeases.release(telegramUserId));
+    }
+
+    /**
+     * @return future that completes once the update, including the OCR -> validation -> feedback chain
+     * it might have started, is fully processed
+     */
+    private CompletableFuture<Void> handleUpdate(Update update) {
+        if (update.hasCallbackQuery()) {
+            return handleCallbackQuery(update.getCallbackQuery());
+        } else if (update.getMessage().hasPhoto()) {
+            return handlePhotoMessage(update.getMessage());
+        } else if (update.getMessage().hasText()) {
+            return handleTextMessage(update.getMessage());
         }
+        return CompletableFuture.completedFuture(null);
     }
 
 
-    private void handlePhotoMessage(Message message) {
+    private CompletableFuture<Void> handlePhotoMessage(Message message) {
         long chatId = message.getChatId();
         Long telegramUserId = message.getFrom().getId();
         String telegramUsername = message.getFrom().getUserName();
         User user = userService.getOrCreateUser(telegramUserId, telegramUsername, chatId);
 
-        executorService.submit(() -> {
-            try {
-                // Extract text from image
-                java.io.File imageFile = downloadUserImage(message);
-                String extractedText = chatGPTService.extractTextFromImage(imageFile);
-
-                if (extractedText.isEmpty()) {
-                    LOGGER.warn("Tried extracting text from photo of user {}, but it's empty", telegramUserId);
-                    sendMessage(chatId, localizedMessagesService.emptyImage(user.getLanguage()));
-                    return;
-                }
-
-                processSubmission(extractedText, user, chatId, true);
-            } catch (Exception e) {
-                LOGGER.error("Error processing image submission for user {}", telegramUserId, e);
-                sendMessage(chatId, localizedMessagesService.errorProcessingImage(user.getLanguage()));
-            }
-        });
+        PhotoSize photo = photoPreparationService.selectPhoto(message.getPhoto());
+        ActiveAssignment currentAssignment = assignmentService.getCurrentActiveAssignment(user);
+        if (currentAssignment == null) {
+            return handleSubmissionWithoutAssignment(user, chatId);
+        }
+
+        return queueSubmission(user, chatId, currentAssignment, SubmissionKind.PHOTO, photo.getFileId(), photo.getFileUniqueId());
+    }
+
+    private CompletableFuture<Void> processPhotoSubmission(PhotoSize photo, User user, long chatId) {
+        Long telegramUserId = user.getTelegramId();
+
+        // The same photo (e.g. resent after an error or forwarded) doesn't need to be downloaded and recognized again
+        String recognizedText = chatGPTService.getRecognizedText(photo.getFileUniqueId());
+        if (recognizedText != null) {
+            LOGGER.info("Reusing text recognized earlier on photo {} of user {}", photo.getFileUniqueId(), telegramUserId);
+            return processSubmission(recognizedText, user, chatId, true);
+        }
+
+        java.io.File imageFile;
+        try {
+            imageFile = downloadPhoto(photo);
+        } catch (Exception e) {
+            LOGGER.warn("Error downloading image submission of user {}", telegramUserId);
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            photoPreparationService.prepare(imageFile);
+        } catch (Exception e) {
+            LOGGER.warn("Error preparing image submission of user {}", telegramUserId);
+            deleteScratchFile(imageFile);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        if (fusedEvaluation) {
+            return evaluatePhotoSubmission(photo.getFileUniqueId(), imageFile, user, chatId);
+        }
+
+        // Extract text from image
+        return chatGPTService.extractTextFromImage(photo.getFileUniqueId(), imageFile, queueNotice(chatId, user.getLanguage()))
+                .whenComplete((extractedText, error) -> deleteScratchFile(imageFile))
+                .thenComposeAsync(extractedText -> {
+                    if (extractedText.isEmpty()) {
+                        LOGGER.warn("Tried extracting text from photo of user {}, but it's empty", telegramUserId);
+                        sendMessage(chatId, localizedMessagesService.emptyImage(user.getLanguage()));
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+
+                    return processSubmission(extractedText, user, chatId, true);
+                }, executorService);
+    }
+
+    /**
+     * Recognizes, validates and reviews the photographed essay with a single OpenAI request.
+     */
+    private CompletableFuture<Void> evaluatePhotoSubmission(String photoId, java.io.File imageFile, User user, long chatId) {
+        Long telegramUserId = user.getTelegramId();
+        ActiveAssignment currentAssignment = assignmentService.getCurrentActiveAssignment(user);
+        if (currentAssignment == null) {
+            deleteScratchFile(imageFile);
+            return handleSubmissionWithoutAssignment(user, chatId);
+        }
+        String topic = assignmentService.getTopic(currentAssignment).topicDe();
+        LOGGER.info("User {} submitting photo for topic: {}", telegramUserId, topic);
+
+        return chatGPTService.evaluatePhotoSubmission(photoId, imageFile, topic, user.getLanguage(),
+                        queueNotice(chatId, user.getLanguage()))
+                .whenComplete((evaluation, error) -> deleteScratchFile(imageFile))
+                .thenComposeAsync(evaluation -> {
+                    if (evaluation.text().isEmpty()) {
+                        LOGGER.warn("Tried extracting text from photo of user {}, but it's empty", telegramUserId);
+                        sendMessage(chatId, localizedMessagesService.emptyImage(user.getLanguage()));
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+
+                    ValidationError lengthError = validateLength(evaluation.text());
+                    if (lengthError != null) {
+                        rejectSubmission(evaluation.text(), user, chatId, topic, lengthError);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    return completeEvaluatedSubmission(evaluation, currentAssignment, user, chatId, topic);
+                }, executorService);
     }
 
 
-    private void handleTextMessage(Message incomingMessage) {
+    private CompletableFuture<Void> handleTextMessage(Message incomingMessage) {
         long chatId = incomingMessage.getChatId();
         String incomingMessageText = incomingMessage.getText().trim();
         Long telegramUserId = incomingMessage.getFrom().getId();
@@ -147,93 +319,249 @@ public class SochinenieBot implements SpringLongPollingBot, LongPollingSingleThr
 
         if (incomingMessageText.equalsIgnoreCase("/language")) {
             showLanguageSelection(chatId);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         if (!userExists || incomingMessageText.equalsIgnoreCase("/start")) {
             showLanguageSelection(chatId);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         if (incomingMessageText.equalsIgnoreCase("/privacy_policy")) {
             sendMessage(chatId, localizedMessagesService.privacyPolicy(user.getLanguage()));
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         if (assignmentService.getCurrentActiveAssignment(user) == null) {
             if (!assignmentService.hasAvailableTopics(user)) {
                 sendMessage(chatId, localizedMessagesService.errorNoTopicsLeft(user.getLanguage()));
-                return;
+                return CompletableFuture.completedFuture(null);
             }
 
-            assignFirstAssignment(chatId, user);
-            return;
+            return assignFirstAssignment(chatId, user);
         }
 
         if (incomingMessageText.equalsIgnoreCase("/new_assignment")) {
             LOGGER.info("User {} asked for new assignment", telegramUserId);
 
-            removeInlineKeyboard(assignmentService.getCurrentActiveAssignment(user).getTelegramMessageId(), chatId);
-            assignNewAssignment(chatId, userService.getOrCreateUser(telegramUserId, telegramUsername, chatId));
-            return;
+            removeInlineKeyboard(assignmentService.getCurrentActiveAssignment(user).telegramMessageId(), chatId);
+            return assignNewAssignment(chatId, userService.getOrCreateUser(telegramUserId, telegramUsername, chatId));
         }
 
         // Process text-based submission
-        processSubmission(incomingMessageText, user, chatId, false);
+        return queueTextSubmission(incomingMessageText, user, chatId);
+    }
+
+    /**
+     * Rejects what can be rejected right away and evaluates the rest.
+     */
+    private CompletableFuture<Void> queueTextSubmission(String submission, User user, long chatId) {
+        ActiveAssignment currentAssignment = assignmentService.getCurrentActiveAssignment(user);
+        if (currentAssignment == null) {
+            return handleSubmissionWithoutAssignment(user, chatId);
+        }
+
+        ValidationError lengthError = validateLength(submission);
+        if (lengthError != null) {
+            rejectSubmission(submission, user, chatId, assignmentService.getTopic(currentAssignment).topicDe(), lengthError);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return queueSubmission(user, chatId, currentAssignment, SubmissionKind.TEXT, submission, null);
+    }
+
+    /**
+     * Queues the submission, so that it survives a restart, and evaluates it right away as part of the update:
+     * the user's later updates, e.g. asking for a new assignment, wait until the evaluation is done.
+     * If it fails, the job is put back and a worker tries again later; the user only hears about the error
+     * once the attempts have run out.
+     */
+    private CompletableFuture<Void> queueSubmission(User user, long chatId, ActiveAssignment assignment, SubmissionKind kind,
+                                                    String payload, String photoUniqueId) {
+        SubmissionJob job;
+        try {
+            job = submissionJobQueue.enqueue(user.getTelegramId(), chatId, assignment.assignmentId(), kind,
+                    payload, photoUniqueId);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error queueing submission of user {}", user.getTelegramId(), e);
+            sendMessage(chatId, localizedMessagesService.errorGettingFeedback(user.getLanguage()));
+            return CompletableFuture.completedFuture(null);
+        }
+        if (job == null) {
+            sendMessage(chatId, localizedMessagesService.submissionQueueFull(user.getLanguage()));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> processing;
+        try {
+            processing = processSubmissionJob(job);
+        } catch (RuntimeException e) {
+            processing = CompletableFuture.failedFuture(e);
+        }
+        return processing.handle((result, error) -> {
+            try {
+                submissionJobQueue.finish(job, error);
+            } catch (RuntimeException e) {
+                LOGGER.error("Error finishing submission job {}", job.id(), e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Evaluates the submission unless the user has moved on to another assignment since it was queued,
+     * in which case the user is told that it has been discarded. Errors are left to the caller, which retries the job.
+     */
+    private CompletableFuture<Void> processSubmissionJob(SubmissionJob job) {
+        User user = userService.findUser(job.telegramUserId()).orElse(null);
+        ActiveAssignment currentAssignment = user != null ? assignmentService.getCurrentActiveAssignment(user) : null;
+        if (currentAssignment == null || currentAssignment.assignmentId() != job.assignmentId()) {
+            LOGGER.info("Discarding submission job {} of user {}, its assignment isn't active anymore",
+                    job.id(), job.telegramUserId());
+            if (user != null) {
+                sendMessage(job.chatId(), localizedMessagesService.submissionDiscarded(user.getLanguage()));
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (job.kind() == SubmissionKind.PHOTO) {
+            PhotoSize photo = PhotoSize.builder()
+                    .fileId(job.payload())
+                    .fileUniqueId(job.photoUniqueId())
+                    .build();
+            return processPhotoSubmission(photo, user, job.chatId());
+        }
+        return processSubmission(job.payload(), user, job.chatId(), false);
     }
 
 
-    private void processSubmission(String submission, User user, long chatId, boolean isImageSubmission) {
+    private CompletableFuture<Void> processSubmission(String submission, User user, long chatId, boolean isImageSubmission) {
         Long telegramUserId = user.getTelegramId();
         Language language = user.getLanguage();
-        Assignment currentAssignment = assignmentService.getCurrentActiveAssignment(user);
+        ActiveAssignment currentAssignment = assignmentService.getCurrentActiveAssignment(user);
 
-        // If the user has no active assignments, check if we can assign a new one
         if (currentAssignment == null) {
-            LOGGER.warn("User {} has no active assignment, but sent a submission.", telegramUserId);
-            if (!assignmentService.hasAvailableTopics(user)) {
-                sendMessage(chatId, localizedMessagesService.errorNoTopicsLeft(language));
-                return;
-            }
-
-            assignNewAssignment(chatId, user);
-            return;
+            return handleSubmissionWithoutAssignment(user, chatId);
         }
-        String topic = currentAssignment.getTopic().getTopicDe();
+        CatalogTopic catalogTopic = assignmentService.getTopic(currentAssignment);
+        String topic = catalogTopic.topicDe();
         LOGGER.info("User {} submitting text for topic: {}", telegramUserId, topic);
 
-        try {
-            // Validate submission
-            ValidationError validationError = validateSubmission(submission, topic);
-            if (validationError != null) {
-                logValidationError(telegramUserId, user, chatId, topic, submission, validationError);
-                sendMessage(chatId, getValidationErrorMessage(validationError, language, topic));
-                return;
-            }
+        ValidationError lengthError = validateLength(submission);
+        if (lengthError != null) {
+            rejectSubmission(submission, user, chatId, topic, lengthError);
+            return CompletableFuture.completedFuture(null);
+        }
 
-            // Mark as submitted and remove inline keyboard
-            assignmentService.changeAssignmentState(currentAssignment, AssignmentState.SUBMITTED);
-            removeInlineKeyboard(currentAssignment.getTelegramMessageId(), chatId);
-
-            // Fetch feedback asynchronously
-            executorService.submit(() -> {
-                try {
-                    String feedback = chatGPTService.getFeedback(submission, language);
-                    Message sentMessage = sendMessageWithButton(chatId, feedback, localizedMessagesService.buttonIAmDone(language), "new_assignment");
-                    assignmentService.setTelegramMessageId(currentAssignment, sentMessage.getMessageId());
-                } catch (ChatGPTException e) {
-                    LOGGER.error("Error fetching feedback for user {}", telegramUserId, e);
-                    sendMessage(chatId, localizedMessagesService.errorGettingFeedback(language));
-                }
-            });
+        // Obvious cases are decided locally, only the rest costs a validation request
+        PreValidationVerdict verdict = submissionPreValidator.check(submission, catalogTopic);
+        if (verdict == PreValidationVerdict.REJECT) {
+            rejectSubmission(submission, user, chatId, topic, ValidationError.UNRELATED);
+            return CompletableFuture.completedFuture(null);
+        }
 
-        } catch (Exception e) {
-            LOGGER.error("Unexpected error during submission processing for user {}: {}", telegramUserId, e.getMessage(), e);
-            sendMessage(chatId, localizedMessagesService.errorGettingFeedback(language));
+        IntConsumer queueNotice = queueNotice(chatId, language);
+        if (fusedEvaluation) {
+            return chatGPTService.evaluateSubmission(submission, topic, language, queueNotice)
+                    .thenComposeAsync(evaluation -> completeEvaluatedSubmission(evaluation, currentAssignment, user, chatId, topic),
+                            executorService);
         }
+
+        CompletableFuture<Boolean> validation = verdict == PreValidationVerdict.ACCEPT
+                ? CompletableFuture.completedFuture(true)
+                : chatGPTService.validateSubmission(submission, topic, queueNotice);
+        return validation
+                .thenComposeAsync(isRelated -> {
+                    if (!isRelated) {
+                        rejectSubmission(submission, user, chatId, topic, ValidationError.UNRELATED);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+
+                    markAsSubmitted(user, currentAssignment, chatId);
+                    return sendFeedback(submission, language, chatId, queueNotice)
+                            .thenAccept(feedbackMessageId -> {
+                                if (feedbackMessageId != null) {
+                                    assignmentService.setTelegramMessageId(user, currentAssignment, feedbackMessageId);
+                                }
+                            });
+                }, executorService);
     }
 
-    private ValidationError validateSubmission(String submission, String topic) throws ChatGPTException {
+    /**
+     * Delivers the feedback of a fused evaluation, or the validation error if the essay isn't a German one on the topic.
+     */
+    private CompletableFuture<Void> completeEvaluatedSubmission(SubmissionEvaluation evaluation, ActiveAssignment currentAssignment,
+                                                                User user, long chatId, String topic) {
+        if (!evaluation.isRelatedGermanEssay()) {
+            rejectSubmission(evaluation.text(), user, chatId, topic, ValidationError.UNRELATED);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        markAsSubmitted(user, currentAssignment, chatId);
+        return sendMessageWithButton(chatId, evaluation.feedback(),
+                localizedMessagesService.buttonIAmDone(user.getLanguage()), "new_assignment")
+                .thenAccept(sentMessage -> {
+                    if (sentMessage != null) {
+                        assignmentService.setTelegramMessageId(user, currentAssignment, sentMessage.getMessageId());
+                    }
+                });
+    }
+
+    // If the user has no active assignments, check if we can assign a new one
+    private CompletableFuture<Void> handleSubmissionWithoutAssignment(User user, long chatId) {
+        LOGGER.warn("User {} has no active assignment, but sent a submission.", user.getTelegramId());
+        if (!assignmentService.hasAvailableTopics(user)) {
+            sendMessage(chatId, localizedMessagesService.errorNoTopicsLeft(user.getLanguage()));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return assignNewAssignment(chatId, user);
+    }
+
+    // Mark as submitted and remove inline keyboard
+    private void markAsSubmitted(User user, ActiveAssignment assignment, long chatId) {
+        assignmentService.changeAssignmentState(user, assignment, AssignmentState.SUBMITTED);
+        removeInlineKeyboard(assignment.telegramMessageId(), chatId);
+    }
+
+    private void rejectSubmission(String submission, User user, long chatId, String topic, ValidationError validationError) {
+        logValidationError(user.getTelegramId(), user, chatId, topic, submission, validationError);
+        sendMessage(chatId, getValidationErrorMessage(validationError, user.getLanguage(), topic));
+    }
+
+    /**
+     * Sends the feedback with the "I'm done" button attached to its last message.
+     * In streaming mode the feedback shows up while it's being generated.
+     *
+     * @return future of the id of the message with the button
+     */
+    private CompletableFuture<Integer> sendFeedback(String submission, Language language, long chatId, IntConsumer queueNotice) {
+        String buttonText = localizedMessagesService.buttonIAmDone(language);
+        if (!streamFeedback) {
+            return chatGPTService.getFeedback(submission, language, queueNotice)
+                    .thenCompose(feedback -> sendMessageWithButton(chatId, feedback, buttonText, "new_assignment"))
+                    .thenApply(sentMessage -> sentMessage != null ? sentMessage.getMessageId() : null);
+        }
+
+        StreamingFeedbackMessage feedbackMessage = new StreamingFeedbackMessage(telegramDispatcher, executorService, chatId,
+                TELEGRAM_MESSAGE_LIMIT, feedbackEditIntervalMillis);
+        return chatGPTService.streamFeedback(submission, language, feedbackMessage::update, queueNotice)
+                .thenCompose(feedback -> feedbackMessage.finish(feedback, createButtonKeyboard(buttonText, "new_assignment")));
+    }
+
+    /**
+     * Tells the user their place in line the first time one of the OpenAI requests for their submission has to wait.
+     */
+    private IntConsumer queueNotice(long chatId, Language language) {
+        AtomicBoolean told = new AtomicBoolean(false);
+        return position -> {
+            if (told.compareAndSet(false, true)) {
+                sendMessage(chatId, localizedMessagesService.queuePosition(language, position));
+            }
+        };
+    }
+
+    private ValidationError validateLength(String submission) {
         boolean isTooShort = submission.length() < MIN_SUBMISSION_LENGTH;
         if (isTooShort) {
             return ValidationError.TOO_SHORT;
@@ -242,21 +570,16 @@ public class SochinenieBot implements SpringLongPollingBot, LongPollingSingleThr
         if (isTooLong) {
             return ValidationError.TOO_LONG;
         }
-        boolean isRelated = chatGPTService.validateSubmission(submission, topic);
-        if (!isRelated) {
-            return ValidationError.UNRELATED;
-        }
         return null;
     }
 
-    private void handleCallbackQuery(CallbackQuery callbackQuery) {
+    private CompletableFuture<Void> handleCallbackQuery(CallbackQuery callbackQuery) {
         String callbackData = callbackQuery.getData();
         long chatId = callbackQuery.getMessage().getChatId();
         int messageId = callbackQuery.getMessage().getMessageId();
         Long telegramUserId = callbackQuery.getFrom().getId();
         String telegramUsername = callbackQuery.getFrom().getUserName();
 
-        clearUserProcessingStatus(telegramUserId);
         LOGGER.info("Received callback '{}' from user {}", callbackData, telegramUserId);
 
         // If the callback is for setting the language:
@@ -277,49 +600,47 @@ public class SochinenieBot implements SpringLongPollingBot, LongPollingSingleThr
             sendMessage(chatId, confirmation);
 
             if (assignmentService.getCurrentActiveAssignment(user) == null) {
-                assignFirstAssignment(chatId, user);
+                return assignFirstAssignment(chatId, user);
             }
 
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         if (callbackData.equals("new_assignment")) {
             LOGGER.info("User {} asked for new assignment", telegramUserId);
             removeInlineKeyboard(messageId, chatId);
-            assignNewAssignment(chatId, userService.getOrCreateUser(telegramUserId, telegramUsername, chatId));
+            return assignNewAssignment(chatId, userService.getOrCreateUser(telegramUserId, telegramUsername, chatId));
         }
+        return CompletableFuture.completedFuture(null);
     }
 
-    private void assignFirstAssignment(Long chatId, User user) {
+    private CompletableFuture<Void> assignFirstAssignment(Long chatId, User user) {
         sendMessage(chatId, localizedMessagesService.privacyPolicy(user.getLanguage()));
         sendMessage(chatId, localizedMessagesService.firstAssignment(user.getLanguage()));
-        Assignment firstAssignment = assignmentService.assignNewTopic(user);
-        sendAssignment(chatId, firstAssignment, user.getLanguage());
+        ActiveAssignment firstAssignment = assignmentService.assignNewTopic(user);
+        return sendAssignment(chatId, user, firstAssignment);
     }
 
-    private void assignNewAssignment(Long chatId, User user) {
-        Assignment currentAssignment = assignmentService.getCurrentActiveAssignment(user);
+    private CompletableFuture<Void> assignNewAssignment(Long chatId, User user) {
+        ActiveAssignment currentAssignment = assignmentService.getCurrentActiveAssignment(user);
 
-        if (currentAssignment.getState() == AssignmentState.SUBMITTED) {
+        if (currentAssignment.state() == AssignmentState.SUBMITTED) {
             sendMessage(chatId, localizedMessagesService.doneWithTopic(user.getLanguage()));
-            assignmentService.changeAssignmentState(currentAssignment, AssignmentState.DONE);
         } else {
             sendMessage(chatId, localizedMessagesService.wantAnotherTopic(user.getLanguage()));
-            assignmentService.changeAssignmentState(currentAssignment, AssignmentState.CANCELLED);
         }
 
-        Assignment newAssignment;
+        ActiveAssignment newAssignment;
         try {
-            if (!assignmentService.hasAvailableTopics(user)) {
-                sendMessage(chatId, localizedMessagesService.errorNoTopicsLeft(user.getLanguage()));
-                return;
-            }
-            newAssignment = assignmentService.assignNewTopic(user);
+            newAssignment = assignmentService.replaceAssignment(user, currentAssignment);
         } catch (IllegalStateException e) {
+            newAssignment = null;
+        }
+        if (newAssignment == null) {
             sendMessage(chatId, localizedMessagesService.errorNoTopicsLeft(user.getLanguage()));
-            return;
+            return CompletableFuture.completedFuture(null);
         }
-        sendAssignment(chatId, newAssignment, user.getLanguage());
+        return sendAssignment(chatId, user, newAssignment);
     }
 
     private void showLanguageSelection(long chatId) {
@@ -337,33 +658,29 @@ public class SochinenieBot implements SpringLongPollingBot, LongPollingSingleThr
                 .text(messageText)
                 .replyMarkup(keyboard)
                 .build();
-        try {
-            telegramClient.execute(message);
-        } catch (TelegramApiException e) {
-            LOGGER.error("Error sending language selection message: {}", e.getMessage(), e);
-        }
+        telegramDispatcher.send(chatId, message)
+                .exceptionally(e -> {
+                    LOGGER.error("Error sending language selection message: {}", e.getMessage(), e);
+                    return null;
+                });
     }
 
-    private void sendAssignment(Long chatId, Assignment assignment, Language language) {
-        AssignmentTopic topic = assignment.getTopic();
-        String topicText;
-        String descriptionText;
-        if (language.equals(Language.DE)) {
-            topicText = topic.getTopic(language);
-            descriptionText = topic.getDescription(language);
-        } else {
-            topicText = topic.getTopic(language) + " (" + topic.getTopic(Language.DE) + ")";
-            descriptionText = topic.getDescription(Language.DE) + "\n\n- - - - - - - - - - - -\n\n" + topic.getDescription(language);
-        }
-        String assignmentText = localizedMessagesService.assignmentText(language,
-                topicText,
-                descriptionText,
-                topic.getKeywords(language));
+    private CompletableFuture<Void> sendAssignment(Long chatId, User user, ActiveAssignment assignment) {
+        Language language = user.getLanguage();
+        String assignmentText = assignmentService.getTopic(assignment).assignmentText(language);
 
-        Message message = sendMessageWithButton(chatId, assignmentText, localizedMessagesService.buttonIWantAnother(language), "new_assignment");
-        assignmentService.setTelegramMessageId(assignment, message.getMessageId());
+        return sendMessageWithButton(chatId, assignmentText, localizedMessagesService.buttonIWantAnother(language), "new_assignment")
+                .thenAccept(message -> {
+                    if (message != null) {
+                        assignmentService.setTelegramMessageId(user, assignment, message.getMessageId());
+                    }
+                });
     }
 
+    /**
+     * Queues the text for sending. Messages to one chat are delivered in the order they are queued,
+     * so callers don't need to wait for the result.
+     */
     private void sendMessage(Long chatId, String text) {
         List<String> messageChunks = splitMessage(text, TELEGRAM_MESSAGE_LIMIT);
 
@@ -373,24 +690,22 @@ public class SochinenieBot implements SpringLongPollingBot, LongPollingSingleThr
                     .text(chunk)
                     .parseMode("Markdown")
                     .build();
-            try {
-                telegramClient.execute(message);
-            } catch (TelegramApiException e) {
-                LOGGER.error("Error sending message chunk: {}", e.getMessage(), e);
-            }
+            telegramDispatcher.send(chatId, message)
+                    .exceptionally(e -> {
+                        LOGGER.error("Error sending message chunk: {}", e.getMessage(), e);
+                        return null;
+                    });
         }
     }
 
-    private Message sendMessageWithButton(Long chatId, String text, String buttonText, String callbackData) {
+    /**
+     * @return future of the last sent message (the one with the button), or of null if it could not be sent
+     */
+    private CompletableFuture<Message> sendMessageWithButton(Long chatId, String text, String buttonText, String callbackData) {
         List<String> messageChunks = splitMessage(text, TELEGRAM_MESSAGE_LIMIT);
-        Message lastSentMessage = null;
+        CompletableFuture<Message> lastSentMessage = CompletableFuture.completedFuture(null);
 
-        InlineKeyboardMarkup keyboard = InlineKeyboardMarkup.builder()
-                .keyboardRow(new InlineKeyboardRow(List.of(InlineKeyboardButton.builder()
-                        .text(buttonText)
-                        .callbackData(callbackData)
-                        .build())))
-                .build();
+        InlineKeyboardMarkup keyboard = createButtonKeyboard(buttonText, callbackData);
 
         for (int i = 0; i < messageChunks.size(); i++) {
             boolean isLastChunk = (i == messageChunks.size() - 1);
@@ -404,16 +719,25 @@ public class SochinenieBot implements SpringLongPollingBot, LongPollingSingleThr
                 messageBuilder.replyMarkup(keyboard);
             }
 
-            try {
-                lastSentMessage = telegramClient.execute(messageBuilder.build());
-            } catch (TelegramApiException e) {
-                LOGGER.error("Error sending message chunk with button: {}", e.getMessage(), e);
-            }
+            lastSentMessage = telegramDispatcher.send(chatId, messageBuilder.build())
+                    .exceptionally(e -> {
+                        LOGGER.error("Error sending message chunk with button: {}", e.getMessage(), e);
+                        return null;
+                    });
         }
 
         return lastSentMessage;
     }
 
+    private InlineKeyboardMarkup createButtonKeyboard(String buttonText, String callbackData) {
+        return InlineKeyboardMarkup.builder()
+                .keyboardRow(new InlineKeyboardRow(List.of(InlineKeyboardButton.builder()
+                        .text(buttonText)
+                        .callbackData(callbackData)
+                        .build())))
+                .build();
+    }
+
     private List<String> splitMessage(String text, int limit) {
         List<String> chunks = new ArrayList<>();
 
@@ -437,17 +761,20 @@ public class SochinenieBot implements SpringLongPollingBot, LongPollingSingleThr
         return chunks;
     }
 
-    private void removeInlineKeyboard(int messageId, long chatId) {
+    private void removeInlineKeyboard(Integer messageId, long chatId) {
+        if (messageId == null) {
+            return;
+        }
         EditMessageReplyMarkup editMarkup = EditMessageReplyMarkup.builder()
                 .chatId(chatId)
                 .messageId(messageId)
                 .replyMarkup(new InlineKeyboardMarkup(Collections.emptyList())) // Empty keyboard to remove buttons
                 .build();
-        try {
-            telegramClient.execute(editMarkup);
-        } catch (TelegramApiException e) {
-            LOGGER.error("Error removing inline keyboard: {}", e.getMessage(), e);
-        }
+        telegramDispatcher.send(chatId, editMarkup)
+                .exceptionally(e -> {
+                    LOGGER.error("Error removing inline keyboard: {}", e.getMessage(), e);
+                    return null;
+                });
     }
 
     private void showTyping(Long chatId) {
@@ -455,12 +782,11 @@ public class SochinenieBot implements SpringLongPollingBot, LongPollingSingleThr
                 .action(ActionType.TYPING.toString())
                 .chatId(chatId)
                 .build();
-        try {
-            telegramClient.execute(sendChatAction);
-            // LOGGER.info("Sending 'typing' action to chat {}", chatId);
-        } catch (TelegramApiException e) {
-            LOGGER.error("Error sending 'typing' action");
-        }
+        telegramDispatcher.send(chatId, sendChatAction)
+                .exceptionally(e -> {
+                    LOGGER.error("Error sending 'typing' action");
+                    return null;
+                });
     }
 
     private void logValidationError(Long userId, User user, long chatId, String topic, String submission, ValidationError error) {
@@ -479,24 +805,27 @@ public class SochinenieBot implements SpringLongPollingBot, LongPollingSingleThr
         };
     }
 
-    private java.io.File downloadUserImage(Message message) throws Exception {
-        List<PhotoSize> photos = message.getPhoto();
-        PhotoSize largestPhoto = photos.stream()
-                .max(Comparator.comparing(PhotoSize::getFileSize))
-                .orElseThrow(() -> new Exception("No photo found in message"));
-
-        String filePath = getFilePath(largestPhoto);
-        return downloadPhotoByFilePath(filePath);
+    /**
+     * Streams the photo into a scratch file, which the caller must remove with {@link #deleteScratchFile(java.io.File)}.
+     */
+    private java.io.File downloadPhoto(PhotoSize photo) throws TelegramApiException, IOException {
+        String filePath = getFilePath(photo);
+        Path scratchFile = Files.createTempFile("photo-", ".jpg");
+        try (InputStream photoStream = telegramClient.downloadFileAsStream(filePath)) {
+            Files.copy(photoStream, scratchFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (TelegramApiException | IOException | RuntimeException e) {
+            deleteScratchFile(scratchFile.toFile());
+            throw e;
+        }
+        return scratchFile.toFile();
     }
 
-    public java.io.File downloadPhotoByFilePath(String filePath) {
+    private void deleteScratchFile(java.io.File file) {
         try {
-            return telegramClient.downloadFile(filePath);
-        } catch (TelegramApiException e) {
-            LOGGER.error("Error downloading the file from telegram", e);
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOGGER.warn("Error deleting scratch file {}", file, e);
         }
-
-        return null;
     }
 
     public String getFilePath(PhotoSize photo) {
@@ -516,21 +845,4 @@ public class SochinenieBot implements SpringLongPollingBot, LongPollingSingleThr
 
         return null;
     }
-
-    private boolean isUserRequestProcessing(Long userId) {
-        return usersExpectingResponse.containsKey(userId);
-    }
-
-    private void markUserAsProcessing(Long userId) {
-        usersExpectingResponse.put(userId, true);
-    }
-
-    private void clearUserProcessingStatus(Long userId) {
-        usersExpectingResponse.remove(userId);
-    }
-
-    @AfterBotRegistration
-    public void afterRegistration(BotSession botSession) {
-        LOGGER.info("Registered bot running state is: {}", botSession.isRunning());
-    }
 }
@@ -0,0 +1,205 @@
+package com.serhiidrahan.daily_sochinenie_de;
+
+import com.serhiidrahan.daily_sochinenie_de.infrastructure.TelegramDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Shows feedback while it is being generated: the first piece is sent as a new message, which is then
+ * edited at most once per edit interval. Text beyond the Telegram message limit rolls over into a new
+ * message. Intermediate states are sent without Markdown, because half-written Markdown often can't be parsed.
+ * Updates go through the dispatcher like all other messages. They are chained, each one starting once the one
+ * before has been answered, so no thread ever waits for Telegram.
+ */
+class StreamingFeedbackMessage {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingFeedbackMessage.class);
+    private static final String MESSAGE_NOT_MODIFIED = "message is not modified";
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final TelegramDispatcher telegramDispatcher;
+    private final Executor executor;
+    private final long chatId;
+    private final int messageLimit;
+    private final long editIntervalNanos;
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private volatile String latestText = "";
+    private volatile long nextFlushAt;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock: the last update in the chain
+    private CompletableFuture<Void> updates = DONE;
+    private volatile boolean finished = false;
+
+    // Only used by the updates, which run one after another
+    private int currentMessageOffset = 0;
+    private Integer currentMessageId;
+    private String currentMessageText;
+
+    StreamingFeedbackMessage(TelegramDispatcher telegramDispatcher, Executor executor, long chatId,
+                             int messageLimit, long editIntervalMillis) {
+        this.telegramDispatcher = telegramDispatcher;
+        this.executor = executor;
+        this.chatId = chatId;
+        this.messageLimit = messageLimit;
+        this.editIntervalNanos = editIntervalMillis * 1_000_000;
+        this.nextFlushAt = System.nanoTime();
+    }
+
+    /**
+     * Called with the whole text generated so far. Cheap: the Telegram update happens on the executor.
+     */
+    void update(String text) {
+        latestText = text;
+        if (System.nanoTime() - nextFlushAt >= 0 && flushScheduled.compareAndSet(false, true)) {
+            lock.lock();
+            try {
+                if (finished) {
+                    return;
+                }
+                updates = chain(updates, this::flush).handle((ignored, error) -> {
+                    nextFlushAt = System.nanoTime() + editIntervalNanos;
+                    flushScheduled.set(false);
+                    return null;
+                });
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Shows the complete text (with Markdown) and attaches the keyboard to the last message, after the updates
+     * before. Later updates are ignored.
+     *
+     * @return future of the id of the last message, or of null if it could not be sent
+     */
+    CompletableFuture<Integer> finish(String text, InlineKeyboardMarkup keyboard) {
+        lock.lock();
+        try {
+            finished = true;
+            CompletableFuture<Integer> lastMessageId = chain(updates, () -> showFinal(text, keyboard));
+            updates = lastMessageId.handle((ignored, error) -> null);
+            return lastMessageId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return future of the step, started on the executor once the previous update is done
+     */
+    private <T> CompletableFuture<T> chain(CompletableFuture<Void> previous, Supplier<CompletableFuture<T>> step) {
+        return previous.thenComposeAsync(ignored -> step.get(), executor)
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        LOGGER.error("Error updating streamed feedback message", error);
+                    }
+                });
+    }
+
+    private CompletableFuture<Void> flush() {
+        if (finished) {
+            return DONE;
+        }
+        String text = latestText;
+        return rollOverFullMessages(text)
+                .thenCompose(ignored -> show(text.substring(currentMessageOffset).trim(), false, null));
+    }
+
+    private CompletableFuture<Integer> showFinal(String text, InlineKeyboardMarkup keyboard) {
+        return rollOverFullMessages(text).thenCompose(ignored -> {
+            String lastChunk = text.substring(currentMessageOffset).trim();
+            if (lastChunk.isEmpty() && currentMessageId == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return show(lastChunk, true, keyboard).thenApply(shown -> currentMessageId);
+        });
+    }
+
+    /**
+     * Finalizes messages while the text of the current one exceeds the limit, so that only the tail remains.
+     */
+    private CompletableFuture<Void> rollOverFullMessages(String text) {
+        if (text.length() - currentMessageOffset <= messageLimit) {
+            return DONE;
+        }
+        String remaining = text.substring(currentMessageOffset);
+        int splitIndex = findSplitIndex(remaining);
+        return show(remaining.substring(0, splitIndex).trim(), true, null).thenCompose(ignored -> {
+            currentMessageOffset += splitIndex;
+            currentMessageId = null;
+            currentMessageText = null;
+            return rollOverFullMessages(text);
+        });
+    }
+
+    private int findSplitIndex(String text) {
+        int splitIndex = text.lastIndexOf("\n", messageLimit); // Try to split at newline
+        if (splitIndex <= 0) {
+            splitIndex = text.lastIndexOf(" ", messageLimit); // Otherwise split at the last space
+        }
+        if (splitIndex <= 0) {
+            splitIndex = messageLimit; // If no space, force split at limit
+        }
+        return splitIndex;
+    }
+
+    private CompletableFuture<Void> show(String text, boolean isFinal, InlineKeyboardMarkup keyboard) {
+        if (text.isEmpty() || (!isFinal && text.equals(currentMessageText))) {
+            return DONE;
+        }
+        return send(text, isFinal ? "Markdown" : null, keyboard).exceptionallyCompose(error -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (!(cause instanceof TelegramApiException)) {
+                return CompletableFuture.failedFuture(cause);
+            }
+            if (!isFinal) {
+                LOGGER.warn("Error updating streamed feedback message: {}", cause.getMessage());
+                return DONE;
+            }
+            if (cause.getMessage() != null && cause.getMessage().contains(MESSAGE_NOT_MODIFIED)) {
+                return DONE;
+            }
+            // The final text might contain Markdown Telegram can't parse, fall back to plain text
+            return send(text, null, keyboard).exceptionally(plainTextError -> {
+                LOGGER.error("Error sending streamed feedback message: {}", plainTextError.getMessage(), plainTextError);
+                return null;
+            });
+        });
+    }
+
+    private CompletableFuture<Void> send(String text, String parseMode, InlineKeyboardMarkup keyboard) {
+        if (currentMessageId == null) {
+            SendMessage message = SendMessage.builder()
+                    .chatId(chatId)
+                    .text(text)
+                    .parseMode(parseMode)
+                    .replyMarkup(keyboard)
+                    .build();
+            return telegramDispatcher.send(chatId, message).thenAccept(sentMessage -> {
+                currentMessageId = sentMessage.getMessageId();
+                currentMessageText = text;
+            });
+        }
+        EditMessageText edit = EditMessageText.builder()
+                .chatId(chatId)
+                .messageId(currentMessageId)
+                .text(text)
+                .parseMode(parseMode)
+                .replyMarkup(keyboard)
+                .build();
+        return telegramDispatcher.send(chatId, edit).thenAccept(edited -> currentMessageText = text);
+    }
+}
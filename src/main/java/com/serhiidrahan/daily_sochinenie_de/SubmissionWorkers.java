@@ -0,0 +1,118 @@
+package com.serhiidrahan.daily_sochinenie_de;
+
+import com.serhiidrahan.daily_sochinenie_de.dto.SubmissionJob;
+import com.serhiidrahan.daily_sochinenie_de.service.SubmissionJobQueue;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of workers evaluating the submissions no instance is running: jobs put back after an error and jobs
+ * left behind by a previous run or a crashed instance. At most {@code workers} run at a time. Jobs are claimed
+ * as soon as one is put back or a worker becomes free, and are polled for as well. On shutdown no more jobs are
+ * claimed and the running ones, including those started by the bot itself, are given the drain timeout to
+ * finish; whatever is still running then goes back into the queue.
+ */
+@Component
+public class SubmissionWorkers {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubmissionWorkers.class);
+    private static final long DRAIN_POLL_MILLIS = 100;
+
+    private final SubmissionJobQueue submissionJobQueue;
+    private final SochinenieBot sochinenieBot;
+    private final ExecutorService executorService;
+    private final int workers;
+    private final long drainTimeoutSeconds;
+    private final Semaphore freeWorkers;
+    private volatile boolean running = false;
+
+    public SubmissionWorkers(SubmissionJobQueue submissionJobQueue, SochinenieBot sochinenieBot, ExecutorService botExecutor,
+                             @Value("${telegrambot.submission-jobs.workers}") int workers,
+                             @Value("${telegrambot.submission-jobs.drain-timeout-seconds}") long drainTimeoutSeconds) {
+        this.submissionJobQueue = submissionJobQueue;
+        this.sochinenieBot = sochinenieBot;
+        this.executorService = botExecutor;
+        this.workers = workers;
+        this.drainTimeoutSeconds = drainTimeoutSeconds;
+        this.freeWorkers = new Semaphore(workers);
+        submissionJobQueue.onEnqueued(this::wakeUp);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        LOGGER.info("Starting submission workers, {} jobs in the backlog", submissionJobQueue.backlog());
+        claimJobs();
+    }
+
+    @Scheduled(fixedDelayString = "${telegrambot.submission-jobs.poll-interval-ms}")
+    public void poll() {
+        claimJobs();
+    }
+
+    @PreDestroy
+    public void drain() {
+        running = false;
+        LOGGER.info("Waiting up to {} s for running submission jobs to finish", drainTimeoutSeconds);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainTimeoutSeconds);
+        try {
+            if (freeWorkers.tryAcquire(workers, drainTimeoutSeconds, TimeUnit.SECONDS)) {
+                // Jobs the bot started itself hold no worker
+                while (submissionJobQueue.isRunningAny() && System.nanoTime() - deadline < 0) {
+                    Thread.sleep(DRAIN_POLL_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        submissionJobQueue.releaseRunning();
+    }
+
+    private void wakeUp() {
+        if (running) {
+            executorService.execute(this::claimJobs);
+        }
+    }
+
+    private synchronized void claimJobs() {
+        if (!running || freeWorkers.availablePermits() == 0) {
+            return;
+        }
+
+        SubmissionJobQueue.Claimed claimed;
+        try {
+            claimed = submissionJobQueue.claim(freeWorkers.availablePermits());
+        } catch (RuntimeException e) {
+            LOGGER.error("Error claiming submission jobs", e);
+            return;
+        }
+
+        claimed.exhausted().forEach(sochinenieBot::failSubmissionJob);
+        for (SubmissionJob job : claimed.runnable()) {
+            // Only claiming takes workers, so there are as many free ones as jobs have been claimed
+            freeWorkers.acquireUninterruptibly();
+            LOGGER.info("Running submission job {} of user {}, attempt {}", job.id(), job.telegramUserId(), job.attempts());
+            sochinenieBot.runSubmissionJob(job).whenComplete((result, error) -> finish(job, error));
+        }
+    }
+
+    private void finish(SubmissionJob job, Throwable error) {
+        try {
+            submissionJobQueue.finish(job, error);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error finishing submission job {}", job.id(), e);
+        } finally {
+            freeWorkers.release();
+        }
+        wakeUp();
+    }
+}
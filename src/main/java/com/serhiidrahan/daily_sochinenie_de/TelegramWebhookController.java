@@ -0,0 +1,72 @@
+package com.serhiidrahan.daily_sochinenie_de;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Receives updates pushed by Telegram, the alternative to {@link LongPollingIngestion}. Registers the webhook
+ * at startup. Updates are only queued for processing, so Telegram gets its response right away.
+ */
+@RestController
+@ConditionalOnProperty(name = "telegrambot.ingestion", havingValue = "webhook")
+public class TelegramWebhookController {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TelegramWebhookController.class);
+    private static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private final SochinenieBot sochinenieBot;
+    private final TelegramClient telegramClient;
+    private final String webhookUrl;
+    private final byte[] secretToken;
+
+    public TelegramWebhookController(SochinenieBot sochinenieBot, TelegramClient telegramClient,
+                                     @Value("${telegrambot.webhook.url}") String webhookUrl,
+                                     @Value("${telegrambot.webhook.secret-token}") String secretToken) {
+        if (secretToken.isBlank()) {
+            throw new IllegalStateException("telegrambot.webhook.secret-token must be set in webhook mode");
+        }
+        this.sochinenieBot = sochinenieBot;
+        this.telegramClient = telegramClient;
+        this.webhookUrl = webhookUrl;
+        this.secretToken = secretToken.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void registerWebhook() throws TelegramApiException {
+        SetWebhook setWebhook = SetWebhook.builder()
+                .url(webhookUrl)
+                .secretToken(new String(secretToken, StandardCharsets.UTF_8))
+                .build();
+        telegramClient.execute(setWebhook);
+        LOGGER.info("Registered webhook {}", webhookUrl);
+    }
+
+    @PostMapping("${telegrambot.webhook.path}")
+    public ResponseEntity<Void> onUpdate(@RequestHeader(name = SECRET_TOKEN_HEADER, required = false) String token,
+                                         @RequestBody Update update) {
+        // Constant-time comparison, so the token can't be guessed from response times
+        if (token == null || !MessageDigest.isEqual(secretToken, token.getBytes(StandardCharsets.UTF_8))) {
+            LOGGER.warn("Rejected webhook request without a valid secret token");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        sochinenieBot.consume(update);
+        return ResponseEntity.ok().build();
+    }
+}
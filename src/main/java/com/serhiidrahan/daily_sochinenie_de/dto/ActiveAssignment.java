@@ -0,0 +1,17 @@
+package com.serhiidrahan.daily_sochinenie_de.dto;
+
+import com.serhiidrahan.daily_sochinenie_de.enums.AssignmentState;
+
+/**
+ * The assignment a user is currently working on (ACTIVE) or has submitted but not finished yet (SUBMITTED).
+ */
+public record ActiveAssignment(long assignmentId, AssignmentState state, long topicId, Integer telegramMessageId) {
+
+    public ActiveAssignment withState(AssignmentState newState) {
+        return new ActiveAssignment(assignmentId, newState, topicId, telegramMessageId);
+    }
+
+    public ActiveAssignment withTelegramMessageId(Integer newTelegramMessageId) {
+        return new ActiveAssignment(assignmentId, state, topicId, newTelegramMessageId);
+    }
+}
@@ -0,0 +1,33 @@
+package com.serhiidrahan.daily_sochinenie_de.dto;
+
+import com.serhiidrahan.daily_sochinenie_de.enums.Language;
+
+import java.util.Map;
+
+/**
+ * Immutable snapshot of an assignment topic, with the assignment message already rendered for every language.
+ */
+public record CatalogTopic(long id, String topicDe, String descriptionDe, Map<Language, String> descriptions,
+                           Map<Language, String> keywords, Map<Language, String> assignmentTexts) {
+
+    public CatalogTopic {
+        descriptions = Map.copyOf(descriptions);
+        keywords = Map.copyOf(keywords);
+        assignmentTexts = Map.copyOf(assignmentTexts);
+    }
+
+    /**
+     * @return the description in the language alone, without the German original
+     */
+    public String description(Language language) {
+        return descriptions.get(language);
+    }
+
+    public String keywords(Language language) {
+        return keywords.get(language);
+    }
+
+    public String assignmentText(Language language) {
+        return assignmentTexts.get(language);
+    }
+}
@@ -0,0 +1,16 @@
+package com.serhiidrahan.daily_sochinenie_de.dto;
+
+/**
+ * Result of evaluating a submission in a single OpenAI request.
+ *
+ * @param text     the submitted text; for photos, the text recognized in the image
+ * @param language ISO 639-1 code of the language the submission is written in
+ * @param related  whether the submission is closely related to the topic
+ * @param feedback the feedback, empty if the submission is not a German essay on the topic
+ */
+public record SubmissionEvaluation(String text, String language, boolean related, String feedback) {
+
+    public boolean isRelatedGermanEssay() {
+        return related && "de".equalsIgnoreCase(language) && !feedback.isBlank();
+    }
+}
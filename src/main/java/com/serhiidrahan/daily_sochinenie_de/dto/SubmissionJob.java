@@ -0,0 +1,12 @@
+package com.serhiidrahan.daily_sochinenie_de.dto;
+
+import com.serhiidrahan.daily_sochinenie_de.enums.SubmissionKind;
+
+/**
+ * A submission queued for evaluation. The payload is the text, or for photos the Telegram file id.
+ *
+ * @param attempts how many times the job has been claimed, including the current one
+ */
+public record SubmissionJob(long id, long telegramUserId, long chatId, long assignmentId, SubmissionKind kind,
+                            String payload, String photoUniqueId, int attempts) {
+}
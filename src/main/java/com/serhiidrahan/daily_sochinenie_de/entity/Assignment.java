@@ -7,11 +7,11 @@ import jakarta.persistence.*;
 @Table(name = "assignment")
 public class Assignment extends BaseEntity {
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false, foreignKey = @ForeignKey(name = "fk_assignment_user_id"))
     private User user;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "topic_id", nullable = false, foreignKey = @ForeignKey(name = "fk_assignment_assignment_topic_id"))
     private AssignmentTopic topic;
 
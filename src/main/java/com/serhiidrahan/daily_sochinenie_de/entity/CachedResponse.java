@@ -0,0 +1,32 @@
+package com.serhiidrahan.daily_sochinenie_de.entity;
+
+import jakarta.persistence.*;
+
+@Entity
+@Table(name = "cached_response", uniqueConstraints = {
+        @UniqueConstraint(columnNames = "cache_key", name = "uq_cached_response_cache_key")
+})
+public class CachedResponse extends BaseEntity {
+
+    @Column(name = "cache_key", nullable = false, unique = true, length = 64)
+    private String cacheKey;
+
+    @Column(name = "response", nullable = false, columnDefinition = "MEDIUMTEXT")
+    private String response;
+
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    public String getResponse() {
+        return response;
+    }
+
+    public void setResponse(String response) {
+        this.response = response;
+    }
+}
@@ -0,0 +1,10 @@
+package com.serhiidrahan.daily_sochinenie_de.enums;
+
+/**
+ * Kinds of OpenAI requests, each with its own concurrency limit.
+ */
+public enum OpenAITask {
+    OCR,
+    VALIDATION,
+    FEEDBACK
+}
@@ -0,0 +1,13 @@
+package com.serhiidrahan.daily_sochinenie_de.enums;
+
+/**
+ * Outcome of the local check of a submission, before it's validated by OpenAI.
+ */
+public enum PreValidationVerdict {
+    // Clearly a German text on the topic
+    ACCEPT,
+    // Clearly not German
+    REJECT,
+    // Left to OpenAI
+    UNDECIDED
+}
@@ -0,0 +1,7 @@
+package com.serhiidrahan.daily_sochinenie_de.enums;
+
+public enum SubmissionJobState {
+    PENDING,
+    RUNNING,
+    FAILED
+}
@@ -0,0 +1,6 @@
+package com.serhiidrahan.daily_sochinenie_de.enums;
+
+public enum SubmissionKind {
+    TEXT,
+    PHOTO
+}
@@ -1,7 +1,25 @@
 package com.serhiidrahan.daily_sochinenie_de.exception;
 
 public class ChatGPTException extends Exception {
+    // HTTP status of the OpenAI response, 0 if there was none
+    private final int statusCode;
+
+    public ChatGPTException(String message) {
+        super(message);
+        this.statusCode = 0;
+    }
+
+    public ChatGPTException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
     public ChatGPTException(String message, Throwable cause) {
         super(message, cause);
+        this.statusCode = 0;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
     }
-}
\ No newline at end of file
+}
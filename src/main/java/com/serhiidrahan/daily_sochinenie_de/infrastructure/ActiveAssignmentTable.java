@@ -0,0 +1,146 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import com.serhiidrahan.daily_sochinenie_de.dto.ActiveAssignment;
+import com.serhiidrahan.daily_sochinenie_de.enums.AssignmentState;
+
+import java.util.Arrays;
+
+/**
+ * Active assignments by Telegram user id, stored in parallel primitive arrays with open addressing and
+ * linear probing. A slot takes 29 bytes and there is no object per user, so the table stays small
+ * for hundreds of thousands of users.
+ * <p>
+ * Telegram user ids are positive, 0 marks a free slot. Telegram message ids start at 1, 0 stands for none.
+ */
+public class ActiveAssignmentTable {
+    private static final long FREE = 0;
+    private static final int NO_MESSAGE = 0;
+    private static final AssignmentState[] STATES = AssignmentState.values();
+
+    private long[] userIds;
+    private long[] assignmentIds;
+    private long[] topicIds;
+    private int[] messageIds;
+    private byte[] states;
+    private int size;
+
+    public ActiveAssignmentTable(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1);
+    }
+
+    /**
+     * @return the user's active assignment, or null if they have none
+     */
+    public synchronized ActiveAssignment get(long telegramUserId) {
+        int slot = find(telegramUserId);
+        if (userIds[slot] == FREE) {
+            return null;
+        }
+        int messageId = messageIds[slot];
+        return new ActiveAssignment(assignmentIds[slot], STATES[states[slot]], topicIds[slot],
+                messageId == NO_MESSAGE ? null : messageId);
+    }
+
+    public synchronized void put(long telegramUserId, ActiveAssignment assignment) {
+        if (telegramUserId == FREE) {
+            throw new IllegalArgumentException("Telegram user id must not be 0");
+        }
+        int slot = find(telegramUserId);
+        if (userIds[slot] == FREE) {
+            if ((size + 1) * 4 > userIds.length * 3) {
+                resize();
+                slot = find(telegramUserId);
+            }
+            userIds[slot] = telegramUserId;
+            size++;
+        }
+        assignmentIds[slot] = assignment.assignmentId();
+        topicIds[slot] = assignment.topicId();
+        messageIds[slot] = assignment.telegramMessageId() == null ? NO_MESSAGE : assignment.telegramMessageId();
+        states[slot] = (byte) assignment.state().ordinal();
+    }
+
+    public synchronized void remove(long telegramUserId) {
+        int slot = find(telegramUserId);
+        if (userIds[slot] == FREE) {
+            return;
+        }
+        userIds[slot] = FREE;
+        size--;
+
+        // Shift back following entries that would become unreachable through the freed slot
+        int mask = userIds.length - 1;
+        int free = slot;
+        for (int next = (free + 1) & mask; userIds[next] != FREE; next = (next + 1) & mask) {
+            int home = hash(userIds[next]) & mask;
+            // Move the entry if its home slot is not in the cyclic range (free, next]
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                move(next, free);
+                free = next;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(userIds, FREE);
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int find(long telegramUserId) {
+        int mask = userIds.length - 1;
+        int slot = hash(telegramUserId) & mask;
+        while (userIds[slot] != FREE && userIds[slot] != telegramUserId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void move(int from, int to) {
+        userIds[to] = userIds[from];
+        assignmentIds[to] = assignmentIds[from];
+        topicIds[to] = topicIds[from];
+        messageIds[to] = messageIds[from];
+        states[to] = states[from];
+        userIds[from] = FREE;
+    }
+
+    private void resize() {
+        long[] oldUserIds = userIds;
+        long[] oldAssignmentIds = assignmentIds;
+        long[] oldTopicIds = topicIds;
+        int[] oldMessageIds = messageIds;
+        byte[] oldStates = states;
+
+        allocate(oldUserIds.length * 2);
+        for (int i = 0; i < oldUserIds.length; i++) {
+            if (oldUserIds[i] != FREE) {
+                int slot = find(oldUserIds[i]);
+                userIds[slot] = oldUserIds[i];
+                assignmentIds[slot] = oldAssignmentIds[i];
+                topicIds[slot] = oldTopicIds[i];
+                messageIds[slot] = oldMessageIds[i];
+                states[slot] = oldStates[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        userIds = new long[capacity];
+        assignmentIds = new long[capacity];
+        topicIds = new long[capacity];
+        messageIds = new int[capacity];
+        states = new byte[capacity];
+    }
+
+    private static int hash(long key) {
+        // Spread sequential ids over the table (fmix64 of MurmurHash3)
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,128 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Limits the concurrent calls to a remote service, adapting the limit with additive increase, multiplicative
+ * decrease (AIMD): while calls succeed with the limit reached, the limit grows by about one per limit's worth
+ * of calls; when a call is rejected for overload or takes longer than the latency threshold, the limit is
+ * multiplied by the backoff ratio. Calls over the limit wait in line and start in order.
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+
+    private final ArrayDeque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+    private double limit;
+    private int inFlight = 0;
+    private long lastDecreaseNanos = System.nanoTime();
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+                                      double backoffRatio, Duration latencyThreshold) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Starts the call once the limit allows it.
+     *
+     * @param isOverload tells whether an error means the service is overloaded, e.g. a 429 or a timeout
+     * @param onQueued   called with the position in line if the call has to wait
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call, Predicate<Throwable> isOverload,
+                                            IntConsumer onQueued) {
+        CompletableFuture<Void> slot;
+        int position = 0;
+        synchronized (this) {
+            if (waiting.isEmpty() && inFlight < currentLimit()) {
+                inFlight++;
+                slot = CompletableFuture.completedFuture(null);
+            } else {
+                slot = new CompletableFuture<>();
+                waiting.add(slot);
+                position = waiting.size();
+            }
+        }
+        if (position > 0) {
+            LOGGER.debug("{} call waiting as number {} in line", name, position);
+            onQueued.accept(position);
+        }
+
+        return slot.thenCompose(ignored -> {
+            long startNanos = System.nanoTime();
+            CompletableFuture<T> result;
+            try {
+                result = call.get();
+            } catch (RuntimeException e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+            return result.whenComplete((value, error) -> release(startNanos, error, isOverload));
+        });
+    }
+
+    /**
+     * @return whether a call would start right away
+     */
+    public synchronized boolean hasCapacity() {
+        return waiting.isEmpty() && inFlight < currentLimit();
+    }
+
+    public synchronized double getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    private void release(long startNanos, Throwable error, Predicate<Throwable> isOverload) {
+        long now = System.nanoTime();
+        boolean congested = error != null ? isOverload.test(error) : now - startNanos > latencyThresholdNanos;
+        List<CompletableFuture<Void>> admitted = new ArrayList<>();
+        synchronized (this) {
+            boolean limitReached = inFlight >= currentLimit();
+            inFlight--;
+            // Calls started before the last decrease were sent with the old limit, they don't count against the new one
+            if (congested && startNanos - lastDecreaseNanos > 0) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseNanos = now;
+                LOGGER.info("{} calls congested, concurrency limit lowered to {}", name, currentLimit());
+            } else if (error == null && !congested && limitReached) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+
+            while (!waiting.isEmpty() && inFlight < currentLimit()) {
+                inFlight++;
+                admitted.add(waiting.poll());
+            }
+        }
+        admitted.forEach(slot -> slot.complete(null));
+    }
+
+    private int currentLimit() {
+        return (int) limit;
+    }
+}
@@ -0,0 +1,60 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe in-memory cache holding at most {@code maxEntries} entries. When full, the least recently
+ * used entry is evicted; entries older than the time to live are treated as absent.
+ */
+public class BoundedCache<K, V> {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    public BoundedCache(int maxEntries, Duration ttl) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > BoundedCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value, or null if there is none or it has expired
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.createdAt() > ttlNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value();
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.nanoTime()));
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private record Entry<V>(V value, long createdAt) {
+    }
+}
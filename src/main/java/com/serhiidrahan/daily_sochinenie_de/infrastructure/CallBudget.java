@@ -0,0 +1,28 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+/**
+ * Allowance for extra calls (retries, hedges) earned by regular ones: every call adds {@code ratio} of a token,
+ * every extra call takes a whole one. The balance is capped, so extra calls stay a fraction of all calls.
+ */
+final class CallBudget {
+    private static final double MAX_BALANCE = 10;
+
+    private final double ratio;
+    private double balance = MAX_BALANCE;
+
+    CallBudget(double ratio) {
+        this.ratio = ratio;
+    }
+
+    synchronized void deposit() {
+        balance = Math.min(MAX_BALANCE, balance + ratio);
+    }
+
+    synchronized boolean tryWithdraw() {
+        if (balance < 1) {
+            return false;
+        }
+        balance -= 1;
+        return true;
+    }
+}
@@ -1,13 +1,27 @@
 package com.serhiidrahan.daily_sochinenie_de.infrastructure;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.support.ReloadableResourceBundleMessageSource;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
+import org.telegram.telegrambots.meta.TelegramUrl;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Configuration
+@EnableScheduling
 public class DailySochinenieApplicationConfiguration
 {
+    private static final int OPENAI_CONNECT_TIMEOUT_SECONDS = 30;
+
     @Bean
     public MessageSource messageSource() {
         ReloadableResourceBundleMessageSource messageSource = new ReloadableResourceBundleMessageSource();
@@ -15,4 +29,38 @@ public class DailySochinenieApplicationConfiguration
         messageSource.setDefaultEncoding("UTF-8");
         return messageSource;
     }
+
+    @Bean
+    public TelegramClient telegramClient(@Value("${telegrambot.token}") String botToken,
+                                         @Value("${telegrambot.api-url}") URI apiUrl) {
+        boolean https = "https".equalsIgnoreCase(apiUrl.getScheme());
+        int port = apiUrl.getPort() != -1 ? apiUrl.getPort() : (https ? 443 : 80);
+        return new OkHttpTelegramClient(botToken, new TelegramUrl(apiUrl.getScheme(), apiUrl.getHost(), port, false));
+    }
+
+    /**
+     * One long-lived client for all OpenAI calls, so connections (and TLS sessions) are pooled
+     * and kept alive between OCR, validation and feedback requests.
+     */
+    @Bean
+    public HttpClient openAIHttpClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(OPENAI_CONNECT_TIMEOUT_SECONDS))
+                .build();
+    }
+
+    /**
+     * Executor for handling updates. By default every task gets its own virtual thread, so tasks waiting
+     * on OpenAI, Telegram or the database don't hold back anyone else. With virtual threads switched off
+     * a fixed pool of platform threads is used instead.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService botExecutor(@Value("${telegrambot.executor.virtual-threads}") boolean virtualThreads,
+                                       @Value("${telegrambot.executor.pool-size}") int poolSize) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("bot-", 0).factory());
+        }
+        return Executors.newFixedThreadPool(poolSize, Thread.ofPlatform().name("bot-", 0).factory());
+    }
 }
@@ -0,0 +1,190 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Makes idempotent calls more reliable and cuts their tail latency. A call still running after the observed
+ * latency percentile is hedged with a second one; the first answer wins and the other one is cancelled.
+ * A call that fails is retried after an exponential backoff with full jitter. Hedges and retries draw on
+ * separate {@link CallBudget}s, so they can't multiply the load on the service.
+ * <p>
+ * Cancelling the future returned by an attempt has to cancel the request it made.
+ */
+public class ResilientCaller {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResilientCaller.class);
+    private static final int LATENCY_WINDOW = 200;
+    // Don't hedge before the percentile means anything
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final String name;
+    private final Executor executor;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double hedgePercentile;
+    private final CallBudget retryBudget;
+    private final CallBudget hedgeBudget;
+
+    // Latencies of the latest successful attempts in nanoseconds, a ring buffer
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount = 0;
+    private int nextLatency = 0;
+
+    public ResilientCaller(String name, Executor executor, int maxAttempts, long baseBackoffMillis, long maxBackoffMillis,
+                           double hedgePercentile, double retryBudget, double hedgeBudget) {
+        this.name = name;
+        this.executor = executor;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.hedgePercentile = hedgePercentile;
+        this.retryBudget = new CallBudget(retryBudget);
+        this.hedgeBudget = new CallBudget(hedgeBudget);
+    }
+
+    /**
+     * @param attempt     makes the call once
+     * @param isRetryable tells whether a failed call may succeed when made again
+     * @param canHedge    tells whether there is capacity for a hedged call right now
+     */
+    public <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> attempt, Predicate<Throwable> isRetryable,
+                                         BooleanSupplier canHedge) {
+        retryBudget.deposit();
+        hedgeBudget.deposit();
+        Call<T> call = new Call<>(attempt, isRetryable, canHedge);
+        call.startRound();
+        return call.result;
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[nextLatency] = nanos;
+        nextLatency = (nextLatency + 1) % LATENCY_WINDOW;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_WINDOW);
+    }
+
+    /**
+     * @return the observed latency percentile in milliseconds, or -1 if there aren't enough samples yet
+     */
+    private synchronized long hedgeDelayMillis() {
+        if (latencyCount < MIN_LATENCY_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int index = Math.min(latencyCount - 1, (int) Math.ceil(hedgePercentile * latencyCount) - 1);
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+    }
+
+    private long backoffMillis(int failedAttempts) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(failedAttempts - 1, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private Executor after(long delayMillis) {
+        return CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, executor);
+    }
+
+    /**
+     * One logical call: rounds of attempts, a round being the first attempt and possibly a hedge.
+     */
+    private final class Call<T> {
+        private final Supplier<CompletableFuture<T>> attempt;
+        private final Predicate<Throwable> isRetryable;
+        private final BooleanSupplier canHedge;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        // Guarded by this
+        private int round = 0;
+        private final List<CompletableFuture<T>> running = new ArrayList<>();
+
+        private Call(Supplier<CompletableFuture<T>> attempt, Predicate<Throwable> isRetryable, BooleanSupplier canHedge) {
+            this.attempt = attempt;
+            this.isRetryable = isRetryable;
+            this.canHedge = canHedge;
+        }
+
+        private void startRound() {
+            int currentRound;
+            synchronized (this) {
+                currentRound = ++round;
+            }
+            launch(currentRound);
+
+            long hedgeDelay = hedgeDelayMillis();
+            if (hedgeDelay >= 0) {
+                after(hedgeDelay).execute(() -> hedge(currentRound));
+            }
+        }
+
+        private void hedge(int hedgedRound) {
+            synchronized (this) {
+                if (result.isDone() || round != hedgedRound || running.isEmpty()) {
+                    return;
+                }
+            }
+            if (!canHedge.getAsBoolean() || !hedgeBudget.tryWithdraw()) {
+                return;
+            }
+            LOGGER.debug("{} call is slower than usual, hedging it", name);
+            launch(hedgedRound);
+        }
+
+        private void launch(int attemptRound) {
+            long startNanos = System.nanoTime();
+            CompletableFuture<T> attemptResult;
+            try {
+                attemptResult = attempt.get();
+            } catch (RuntimeException e) {
+                attemptResult = CompletableFuture.failedFuture(e);
+            }
+            synchronized (this) {
+                running.add(attemptResult);
+            }
+            CompletableFuture<T> launched = attemptResult;
+            launched.whenComplete((value, error) -> onAttemptDone(attemptRound, launched, startNanos, value, error));
+        }
+
+        private void onAttemptDone(int attemptRound, CompletableFuture<T> attemptResult, long startNanos, T value, Throwable error) {
+            List<CompletableFuture<T>> losers;
+            synchronized (this) {
+                running.remove(attemptResult);
+                if (result.isDone() || attemptRound != round) {
+                    return;
+                }
+                if (error != null && !running.isEmpty()) {
+                    // The other attempt of the round may still succeed
+                    return;
+                }
+                losers = new ArrayList<>(running);
+                running.clear();
+            }
+
+            if (error == null) {
+                recordLatency(System.nanoTime() - startNanos);
+                result.complete(value);
+                losers.forEach(loser -> loser.cancel(true));
+                return;
+            }
+
+            if (attemptRound < maxAttempts && isRetryable.test(error) && retryBudget.tryWithdraw()) {
+                long backoff = backoffMillis(attemptRound);
+                LOGGER.info("{} call failed, retrying in {} ms (attempt {} of {})", name, backoff, attemptRound + 1, maxAttempts);
+                after(backoff).execute(this::startRound);
+            } else {
+                result.completeExceptionally(error);
+            }
+        }
+    }
+}
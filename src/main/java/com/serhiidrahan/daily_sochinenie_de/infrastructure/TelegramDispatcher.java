@@ -0,0 +1,213 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends requests to the Telegram Bot API without blocking the caller, within Telegram's rate limits:
+ * a global token bucket limits messages per second across all chats, a token bucket per chat limits
+ * messages per second to one chat. Requests to one chat are sent one at a time in submission order.
+ * A request rejected with 429 Too Many Requests is retried after the time Telegram asks for.
+ * <p>
+ * All dispatching state is confined to a single dispatcher thread; the HTTP calls themselves are asynchronous.
+ * Result futures are completed on the bot executor, so callers may do blocking work in their continuations,
+ * but mustn't wait for results on the bot executor: with all its threads waiting, none would be left to complete them.
+ */
+@Component
+public class TelegramDispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TelegramDispatcher.class);
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final long IDLE_CHAT_SWEEP_INTERVAL_SECONDS = 60;
+
+    private final TelegramClient telegramClient;
+    private final ExecutorService completionExecutor;
+    private final ScheduledExecutorService dispatcherThread;
+    private final double perChatRate;
+    private final int perChatBurst;
+    private final int maxRetries;
+
+    // Confined to the dispatcher thread
+    private final TokenBucket globalBucket;
+    private final Map<Long, ChatQueue> chats = new HashMap<>();
+    private final ArrayDeque<ChatQueue> readyChats = new ArrayDeque<>();
+    private boolean dispatchScheduled = false;
+
+    public TelegramDispatcher(TelegramClient telegramClient, ExecutorService botExecutor,
+                              @Value("${telegrambot.dispatcher.global-rate}") double globalRate,
+                              @Value("${telegrambot.dispatcher.per-chat-rate}") double perChatRate,
+                              @Value("${telegrambot.dispatcher.per-chat-burst}") int perChatBurst,
+                              @Value("${telegrambot.dispatcher.max-retries}") int maxRetries) {
+        this.telegramClient = telegramClient;
+        this.completionExecutor = botExecutor;
+        this.perChatRate = perChatRate;
+        this.perChatBurst = perChatBurst;
+        this.maxRetries = maxRetries;
+        this.globalBucket = new TokenBucket(globalRate, globalRate, System.nanoTime());
+        this.dispatcherThread = Executors.newSingleThreadScheduledExecutor(
+                runnable -> Thread.ofPlatform().name("telegram-dispatcher").daemon().unstarted(runnable));
+        this.dispatcherThread.scheduleWithFixedDelay(this::sweepIdleChats,
+                IDLE_CHAT_SWEEP_INTERVAL_SECONDS, IDLE_CHAT_SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Queues the request for the chat.
+     *
+     * @return future of the response, failing with the {@link TelegramApiException} if the request fails
+     */
+    public <T extends Serializable, Method extends BotApiMethod<T>> CompletableFuture<T> send(long chatId, Method method) {
+        Request<T> request = new Request<>(method);
+        dispatcherThread.execute(() -> enqueue(chatId, request));
+        return request.result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcherThread.shutdown();
+    }
+
+    private void enqueue(long chatId, Request<?> request) {
+        ChatQueue chat = chats.computeIfAbsent(chatId,
+                id -> new ChatQueue(id, new TokenBucket(perChatRate, perChatBurst, System.nanoTime())));
+        chat.pending.add(request);
+        wakeUp(chat);
+    }
+
+    /**
+     * Puts the chat in line for sending if it has something to send and isn't waiting for a response already.
+     */
+    private void wakeUp(ChatQueue chat) {
+        if (chat.inFlight || chat.ready || chat.pending.isEmpty()) {
+            return;
+        }
+        chat.ready = true;
+        readyChats.add(chat);
+        scheduleDispatch(0);
+    }
+
+    private void scheduleDispatch(long delayNanos) {
+        if (dispatchScheduled) {
+            return;
+        }
+        dispatchScheduled = true;
+        dispatcherThread.schedule(this::dispatch, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void dispatch() {
+        dispatchScheduled = false;
+        while (!readyChats.isEmpty()) {
+            long now = System.nanoTime();
+            ChatQueue chat = readyChats.peek();
+
+            long chatWait = Math.max(chat.bucket.nanosUntilAvailable(now), chat.blockedUntil - now);
+            if (chatWait > 0) {
+                // Let other chats go first, this one rejoins the line once it may send again
+                readyChats.poll();
+                chat.ready = false;
+                dispatcherThread.schedule(() -> wakeUp(chat), chatWait, TimeUnit.NANOSECONDS);
+                continue;
+            }
+
+            long globalWait = globalBucket.nanosUntilAvailable(now);
+            if (globalWait > 0) {
+                scheduleDispatch(globalWait);
+                return;
+            }
+
+            readyChats.poll();
+            chat.ready = false;
+            globalBucket.take(now);
+            chat.bucket.take(now);
+            chat.inFlight = true;
+            Request<?> request = chat.pending.poll();
+            request.execute(telegramClient)
+                    .whenComplete((ignored, error) -> dispatcherThread.execute(() -> onCompleted(chat, request, error)));
+        }
+    }
+
+    private void onCompleted(ChatQueue chat, Request<?> request, Throwable error) {
+        chat.inFlight = false;
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause == null) {
+            request.succeed(completionExecutor);
+        } else if (cause instanceof TelegramApiRequestException requestException
+                && requestException.getErrorCode() != null
+                && requestException.getErrorCode() == TOO_MANY_REQUESTS
+                && request.attempts <= maxRetries) {
+            int retryAfterSeconds = requestException.getParameters() != null && requestException.getParameters().getRetryAfter() != null
+                    ? requestException.getParameters().getRetryAfter()
+                    : 1;
+            LOGGER.warn("Rate limited by Telegram in chat {}, retrying in {} s", chat.chatId, retryAfterSeconds);
+            chat.blockedUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(retryAfterSeconds);
+            chat.pending.addFirst(request);
+        } else {
+            request.fail(cause, completionExecutor);
+        }
+        wakeUp(chat);
+    }
+
+    private void sweepIdleChats() {
+        long now = System.nanoTime();
+        chats.values().removeIf(chat -> !chat.inFlight && !chat.ready && chat.pending.isEmpty()
+                && chat.blockedUntil - now <= 0 && chat.bucket.isFull(now));
+    }
+
+    private static final class ChatQueue {
+        private final long chatId;
+        private final TokenBucket bucket;
+        private final ArrayDeque<Request<?>> pending = new ArrayDeque<>();
+        private boolean inFlight = false;
+        private boolean ready = false;
+        private long blockedUntil = System.nanoTime();
+
+        private ChatQueue(long chatId, TokenBucket bucket) {
+            this.chatId = chatId;
+            this.bucket = bucket;
+        }
+    }
+
+    private static final class Request<T extends Serializable> {
+        private final BotApiMethod<T> method;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private int attempts = 0;
+        private T response;
+
+        private Request(BotApiMethod<T> method) {
+            this.method = method;
+        }
+
+        private CompletableFuture<Void> execute(TelegramClient telegramClient) {
+            attempts++;
+            try {
+                return telegramClient.executeAsync(method).thenAccept(value -> response = value);
+            } catch (TelegramApiException | RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        private void succeed(ExecutorService executor) {
+            executor.execute(() -> result.complete(response));
+        }
+
+        private void fail(Throwable error, ExecutorService executor) {
+            executor.execute(() -> result.completeExceptionally(error));
+        }
+    }
+}
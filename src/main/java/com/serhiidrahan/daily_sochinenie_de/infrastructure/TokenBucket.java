@@ -0,0 +1,41 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+/**
+ * Token bucket refilled continuously at a fixed rate. Not thread-safe, times are {@link System#nanoTime()} values.
+ */
+final class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(double tokensPerSecond, double capacity, long now) {
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.refilledAt = now;
+    }
+
+    /**
+     * @return 0 if a token is available now, otherwise the nanoseconds until one is
+     */
+    long nanosUntilAvailable(long now) {
+        refill(now);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    void take(long now) {
+        refill(now);
+        tokens -= 1;
+    }
+
+    boolean isFull(long now) {
+        refill(now);
+        return tokens >= capacity;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,185 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-user leases in the database, so that several instances sharing the database never process updates
+ * of the same user at the same time. A lease is taken for every update and released once it has been
+ * processed; while it's held, it is renewed periodically. Lease times use the database clock.
+ * <p>
+ * Every time a lease is taken its version is increased. If the version found differs from the one this
+ * instance wrote last, another instance has processed the user in the meantime and whatever is cached
+ * about the user is stale.
+ * <p>
+ * With clustering disabled, leases are granted right away without touching the database.
+ */
+@Component
+public class UserLeases {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserLeases.class);
+    private static final long NO_LEASE = -1;
+    private static final String SELECT_SQL =
+            "SELECT owner, version, expires_at > NOW(3) AS live FROM user_lease WHERE telegram_user_id = ? FOR UPDATE";
+    // An expired lease nobody has held yet; inserting it twice is fine
+    private static final String CREATE_SQL =
+            "INSERT IGNORE INTO user_lease (telegram_user_id, owner, expires_at, version) VALUES (?, '', NOW(3), 0)";
+    private static final String TAKE_SQL =
+            "UPDATE user_lease SET owner = ?, expires_at = DATE_ADD(NOW(3), INTERVAL ? SECOND), version = ? "
+                    + "WHERE telegram_user_id = ?";
+    private static final String RENEW_SQL =
+            "UPDATE user_lease SET expires_at = DATE_ADD(NOW(3), INTERVAL ? SECOND) "
+                    + "WHERE telegram_user_id = ? AND owner = ? AND version = ?";
+    private static final String RELEASE_SQL =
+            "UPDATE user_lease SET expires_at = NOW(3) WHERE telegram_user_id = ? AND owner = ? AND version = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor retryExecutor;
+    private final boolean enabled;
+    private final String instanceId;
+    private final long leaseSeconds;
+
+    // Leases this instance holds right now, with their versions
+    private final Map<Long, Long> heldLeases = new ConcurrentHashMap<>();
+    // The version this instance wrote last for recently processed users
+    private final BoundedCache<Long, Long> lastVersions;
+
+    public UserLeases(JdbcTemplate jdbcTemplate,
+                      TransactionTemplate transactionTemplate,
+                      ExecutorService botExecutor,
+                      @Value("${telegrambot.cluster.enabled}") boolean enabled,
+                      @Value("${telegrambot.cluster.instance-id}") String instanceId,
+                      @Value("${telegrambot.cluster.lease-seconds}") long leaseSeconds,
+                      @Value("${telegrambot.cluster.retry-interval-ms}") long retryIntervalMs,
+                      @Value("${telegrambot.user-cache.max-entries}") int maxUsers,
+                      @Value("${telegrambot.user-cache.ttl-hours}") long ttlHours) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.retryExecutor = CompletableFuture.delayedExecutor(retryIntervalMs, TimeUnit.MILLISECONDS, botExecutor);
+        this.enabled = enabled;
+        this.instanceId = instanceId;
+        this.leaseSeconds = leaseSeconds;
+        this.lastVersions = new BoundedCache<>(maxUsers, Duration.ofHours(ttlHours));
+        if (enabled) {
+            LOGGER.info("Clustering enabled, this instance is {}", instanceId);
+        }
+    }
+
+    /**
+     * Takes the user's lease, waiting while another instance holds it.
+     *
+     * @return future completing with true if another instance may have changed the user's data since this
+     * instance held the lease last
+     */
+    public CompletableFuture<Boolean> acquire(long telegramUserId) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        tryAcquire(telegramUserId, result);
+        return result;
+    }
+
+    public void release(long telegramUserId) {
+        if (!enabled) {
+            return;
+        }
+        Long version = heldLeases.remove(telegramUserId);
+        if (version != null) {
+            jdbcTemplate.update(RELEASE_SQL, telegramUserId, instanceId, version);
+        }
+    }
+
+    /**
+     * Extends the leases being held, so they don't expire while an update takes long to process.
+     */
+    @Scheduled(fixedDelayString = "${telegrambot.cluster.renew-interval-ms}")
+    public void renew() {
+        if (!enabled || heldLeases.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> batch = new ArrayList<>();
+        for (Map.Entry<Long, Long> lease : heldLeases.entrySet()) {
+            batch.add(new Object[]{leaseSeconds, lease.getKey(), instanceId, lease.getValue()});
+        }
+        int[] updated = jdbcTemplate.batchUpdate(RENEW_SQL, batch);
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                Long telegramUserId = (Long) batch.get(i)[1];
+                LOGGER.warn("Lease of user {} has been lost", telegramUserId);
+                heldLeases.remove(telegramUserId, (Long) batch.get(i)[3]);
+                lastVersions.invalidate(telegramUserId);
+            }
+        }
+    }
+
+    private void tryAcquire(long telegramUserId, CompletableFuture<Boolean> result) {
+        Long previousVersion;
+        try {
+            previousVersion = transactionTemplate.execute(status -> take(telegramUserId));
+            if (previousVersion != null && previousVersion == NO_LEASE) {
+                // Created outside of the locking transaction: locking a missing row locks the gap, and two
+                // instances inserting into the gap they have both locked would deadlock
+                jdbcTemplate.update(CREATE_SQL, telegramUserId);
+                previousVersion = transactionTemplate.execute(status -> take(telegramUserId));
+            }
+        } catch (PessimisticLockingFailureException e) {
+            LOGGER.debug("Lock on lease of user {} not granted, waiting", telegramUserId, e);
+            previousVersion = null;
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+
+        if (previousVersion != null) {
+            Long lastVersion = lastVersions.get(telegramUserId);
+            heldLeases.put(telegramUserId, previousVersion + 1);
+            lastVersions.put(telegramUserId, previousVersion + 1);
+            result.complete(lastVersion == null || lastVersion.longValue() != previousVersion);
+        } else {
+            LOGGER.debug("User {} is being processed by another instance, waiting", telegramUserId);
+            retryExecutor.execute(() -> tryAcquire(telegramUserId, result));
+        }
+    }
+
+    /**
+     * @return null if another instance holds the lease, {@link #NO_LEASE} if the user has no lease row yet,
+     * otherwise the version of the lease before taking it
+     */
+    private Long take(long telegramUserId) {
+        List<Lease> leases = jdbcTemplate.query(SELECT_SQL,
+                (rs, rowNum) -> new Lease(rs.getString("owner"), rs.getLong("version"), rs.getBoolean("live")),
+                telegramUserId);
+
+        if (leases.isEmpty()) {
+            return NO_LEASE;
+        }
+
+        Lease lease = leases.get(0);
+        if (lease.live() && !lease.owner().equals(instanceId)) {
+            return null;
+        }
+        jdbcTemplate.update(TAKE_SQL, instanceId, leaseSeconds, lease.version() + 1, telegramUserId);
+        return lease.version();
+    }
+
+    private record Lease(String owner, long version, boolean live) {
+    }
+}
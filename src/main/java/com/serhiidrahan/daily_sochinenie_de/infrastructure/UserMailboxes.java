@@ -0,0 +1,142 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * Serial per-user task queues. Tasks of one user run one at a time and in submission order, where a task
+ * counts as running until the future it returns completes. Tasks of different users run in parallel.
+ */
+@Component
+public class UserMailboxes {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserMailboxes.class);
+
+    private final ExecutorService executorService;
+    private final int capacity;
+
+    // A user has a mailbox exactly while one of their tasks is running
+    private final ConcurrentHashMap<Long, Queue<Supplier<CompletableFuture<?>>>> mailboxes = new ConcurrentHashMap<>();
+
+    public UserMailboxes(ExecutorService botExecutor, @Value("${telegrambot.mailbox.capacity}") int capacity) {
+        this.executorService = botExecutor;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Queues a task for the user.
+     *
+     * @return false if the user already has {@code capacity} tasks waiting, in which case the task is dropped
+     */
+    public boolean submit(long userId, Supplier<CompletableFuture<?>> task) {
+        return submitAll(userId, List.of(task)) == 1;
+    }
+
+    /**
+     * Queues the tasks for the user in order, as many as fit into the mailbox.
+     *
+     * @return how many of the tasks have been accepted; the rest are dropped
+     */
+    public int submitAll(long userId, List<Supplier<CompletableFuture<?>>> tasks) {
+        int[] accepted = {0};
+        boolean[] startRunning = {false};
+        mailboxes.compute(userId, (id, pending) -> {
+            if (pending == null) {
+                pending = new ArrayDeque<>();
+                startRunning[0] = true;
+            }
+            for (Supplier<CompletableFuture<?>> task : tasks) {
+                // The first task of an idle user is always taken, it starts running right away
+                boolean firstOfIdleUser = startRunning[0] && pending.isEmpty();
+                if (!firstOfIdleUser && pending.size() >= capacity) {
+                    break;
+                }
+                pending.add(task);
+                accepted[0]++;
+            }
+            return pending;
+        });
+
+        if (startRunning[0]) {
+            executorService.execute(() -> runNext(userId));
+        }
+        return accepted[0];
+    }
+
+    /**
+     * Queues a task for the user regardless of the capacity, for work the bot has taken on already
+     * (e.g. a queued submission) rather than a new update.
+     *
+     * @return future that completes once the task has run and the future it returned has completed
+     */
+    public CompletableFuture<Void> enqueue(long userId, Supplier<CompletableFuture<?>> task) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Supplier<CompletableFuture<?>> trackedTask = () -> {
+            CompletableFuture<?> processing;
+            try {
+                processing = task.get();
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+                throw e;
+            }
+            return processing.whenComplete((result, error) -> {
+                if (error != null) {
+                    done.completeExceptionally(error);
+                } else {
+                    done.complete(null);
+                }
+            });
+        };
+
+        boolean[] startRunning = {false};
+        mailboxes.compute(userId, (id, pending) -> {
+            if (pending == null) {
+                pending = new ArrayDeque<>();
+                startRunning[0] = true;
+            }
+            pending.add(trackedTask);
+            return pending;
+        });
+        if (startRunning[0]) {
+            executorService.execute(() -> runNext(userId));
+        }
+        return done;
+    }
+
+    private void runNext(long userId) {
+        @SuppressWarnings("unchecked")
+        Supplier<CompletableFuture<?>>[] next = new Supplier[1];
+        mailboxes.computeIfPresent(userId, (id, pending) -> {
+            next[0] = pending.poll();
+            // Removing the mailbox once it's drained marks the user as idle
+            return next[0] == null ? null : pending;
+        });
+        if (next[0] == null) {
+            return;
+        }
+
+        CompletableFuture<?> processing;
+        try {
+            processing = next[0].get();
+        } catch (RuntimeException e) {
+            LOGGER.error("Error processing task of user {}", userId, e);
+            processing = CompletableFuture.completedFuture(null);
+        }
+
+        processing.whenComplete((result, error) -> {
+            if (error != null) {
+                LOGGER.error("Error processing task of user {}", userId, error);
+            }
+            executorService.execute(() -> runNext(userId));
+        });
+    }
+}
@@ -6,20 +6,57 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface AssignmentRepository extends JpaRepository<Assignment, Long> {
 
-    @Query("SELECT a FROM Assignment a WHERE a.user.id = :userId AND a.state IN :states")
-    List<Assignment> findAssignmentsByUserIdAndStates(@Param("userId") Long userId,
-                                                      @Param("states") List<AssignmentState> states);
+    @Query("SELECT a.user.telegramId AS telegramUserId, a.id AS assignmentId, a.state AS state, " +
+            "a.topic.id AS topicId, a.telegramMessageId AS telegramMessageId " +
+            "FROM Assignment a WHERE a.state IN :states ORDER BY a.id")
+    List<ActiveAssignmentView> findAssignmentsByStates(@Param("states") List<AssignmentState> states);
+
+    @Query("SELECT a.user.telegramId AS telegramUserId, a.id AS assignmentId, a.state AS state, " +
+            "a.topic.id AS topicId, a.telegramMessageId AS telegramMessageId " +
+            "FROM Assignment a WHERE a.user.id = :userId AND a.state IN :states ORDER BY a.id")
+    List<ActiveAssignmentView> findAssignmentsByUserIdAndStates(@Param("userId") Long userId,
+                                                                @Param("states") List<AssignmentState> states);
 
     @Query("SELECT a.topic.id FROM Assignment a WHERE a.user.id = :userId")
     List<Long> findAssignedTopicIdsByUserId(@Param("userId") Long userId);
 
+    @Modifying
+    @Query("UPDATE Assignment a SET a.state = :state, a.lastModifiedDate = :lastModifiedDate WHERE a.id = :id")
+    int updateState(@Param("id") Long id,
+                    @Param("state") AssignmentState state,
+                    @Param("lastModifiedDate") LocalDateTime lastModifiedDate);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE Assignment a SET a.telegramMessageId = :telegramMessageId, a.lastModifiedDate = :lastModifiedDate " +
+            "WHERE a.id = :id")
+    int updateTelegramMessageId(@Param("id") Long id,
+                                @Param("telegramMessageId") Integer telegramMessageId,
+                                @Param("lastModifiedDate") LocalDateTime lastModifiedDate);
+
     @Modifying
     @Query("DELETE FROM Assignment a WHERE a.user.id = :userId AND a.state = 'CANCELLED'")
     int deleteCancelledAssignmentsByUserId(@Param("userId") Long userId);
 
+    /**
+     * Columns of an active assignment, read without loading the user or the topic.
+     */
+    interface ActiveAssignmentView {
+        Long getTelegramUserId();
+
+        Long getAssignmentId();
+
+        AssignmentState getState();
+
+        Long getTopicId();
+
+        Integer getTelegramMessageId();
+    }
 }
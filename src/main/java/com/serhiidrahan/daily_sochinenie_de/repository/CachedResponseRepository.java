@@ -0,0 +1,21 @@
+package com.serhiidrahan.daily_sochinenie_de.repository;
+
+import com.serhiidrahan.daily_sochinenie_de.entity.CachedResponse;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+public interface CachedResponseRepository extends JpaRepository<CachedResponse, Long> {
+
+    Optional<CachedResponse> findByCacheKey(String cacheKey);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM CachedResponse c WHERE c.creationDate < :createdBefore")
+    int deleteCreatedBefore(@Param("createdBefore") LocalDateTime createdBefore);
+}
@@ -2,10 +2,24 @@ package com.serhiidrahan.daily_sochinenie_de.repository;
 
 import com.serhiidrahan.daily_sochinenie_de.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
 
     Optional<User> findByTelegramId(Long telegramId);
-}
\ No newline at end of file
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.chatId = :chatId, u.telegramUsername = :telegramUsername, " +
+            "u.lastModifiedDate = :lastModifiedDate WHERE u.id = :id")
+    int updateContactDetails(@Param("id") Long id,
+                             @Param("chatId") Long chatId,
+                             @Param("telegramUsername") String telegramUsername,
+                             @Param("lastModifiedDate") LocalDateTime lastModifiedDate);
+}
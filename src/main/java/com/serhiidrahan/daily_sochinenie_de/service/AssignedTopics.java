@@ -0,0 +1,98 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import com.serhiidrahan.daily_sochinenie_de.dto.CatalogTopic;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Topics a user has ever been assigned, as a bitset over topic ids. Also counts how many of them are active
+ * in the current topic catalog, so the number of topics left is known without scanning. The count is
+ * recomputed once whenever the catalog is refreshed.
+ */
+final class AssignedTopics {
+    private long[] words;
+
+    // The catalog snapshot assignedActiveCount refers to
+    private TopicCatalog countedFor;
+    private int assignedActiveCount;
+
+    AssignedTopics(Collection<Long> topicIds) {
+        this.words = new long[0];
+        for (Long topicId : topicIds) {
+            set(topicId);
+        }
+    }
+
+    synchronized void add(long topicId, TopicCatalog catalog) {
+        ensureCounted(catalog);
+        if (!contains(topicId)) {
+            set(topicId);
+            if (catalog.isActive(topicId)) {
+                assignedActiveCount++;
+            }
+        }
+    }
+
+    synchronized int remaining(TopicCatalog catalog) {
+        ensureCounted(catalog);
+        return catalog.activeCount() - assignedActiveCount;
+    }
+
+    /**
+     * @return an active topic not assigned yet, every one with the same probability, or null if none is left
+     */
+    synchronized CatalogTopic pickUnassigned(TopicCatalog catalog, Random random) {
+        int remaining = remaining(catalog);
+        if (remaining <= 0) {
+            return null;
+        }
+
+        // Find the n-th unassigned active topic, skipping 64 topics at a time
+        int n = random.nextInt(remaining);
+        for (int i = 0; i < catalog.activeWordCount(); i++) {
+            long unassigned = catalog.activeWord(i) & ~word(i);
+            int count = Long.bitCount(unassigned);
+            if (n < count) {
+                for (int skip = 0; skip < n; skip++) {
+                    unassigned &= unassigned - 1;
+                }
+                return catalog.get(i * 64L + Long.numberOfTrailingZeros(unassigned));
+            }
+            n -= count;
+        }
+        throw new IllegalStateException("Assigned topic count is out of sync with the catalog");
+    }
+
+    private void ensureCounted(TopicCatalog catalog) {
+        if (countedFor == catalog) {
+            return;
+        }
+        int count = 0;
+        for (int i = 0; i < words.length; i++) {
+            count += Long.bitCount(words[i] & catalog.activeWord(i));
+        }
+        assignedActiveCount = count;
+        countedFor = catalog;
+    }
+
+    private boolean contains(long topicId) {
+        return (word((int) (topicId >>> 6)) & (1L << topicId)) != 0;
+    }
+
+    private void set(long topicId) {
+        if (topicId < 0 || topicId >= (long) Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Topic id out of range: " + topicId);
+        }
+        int index = (int) (topicId >>> 6);
+        if (index >= words.length) {
+            words = Arrays.copyOf(words, Math.max(index + 1, words.length * 2));
+        }
+        words[index] |= 1L << topicId;
+    }
+
+    private long word(int index) {
+        return index < words.length ? words[index] : 0;
+    }
+}
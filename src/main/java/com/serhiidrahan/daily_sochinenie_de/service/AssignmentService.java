@@ -1,57 +1,120 @@
 package com.serhiidrahan.daily_sochinenie_de.service;
 
+import com.serhiidrahan.daily_sochinenie_de.dto.ActiveAssignment;
+import com.serhiidrahan.daily_sochinenie_de.dto.CatalogTopic;
 import com.serhiidrahan.daily_sochinenie_de.entity.Assignment;
-import com.serhiidrahan.daily_sochinenie_de.entity.AssignmentTopic;
 import com.serhiidrahan.daily_sochinenie_de.entity.User;
 import com.serhiidrahan.daily_sochinenie_de.enums.AssignmentState;
+import com.serhiidrahan.daily_sochinenie_de.infrastructure.ActiveAssignmentTable;
+import com.serhiidrahan.daily_sochinenie_de.infrastructure.BoundedCache;
 import com.serhiidrahan.daily_sochinenie_de.repository.AssignmentRepository;
+import com.serhiidrahan.daily_sochinenie_de.repository.AssignmentRepository.ActiveAssignmentView;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Random;
+import java.util.function.UnaryOperator;
 
+/**
+ * Manages assignments. The active assignment of every user is kept in memory and is authoritative for reads:
+ * it is loaded from the database at startup, and every change is written to the database first and applied
+ * in memory once the transaction has committed.
+ */
 @Service
 public class AssignmentService {
     private static final Logger LOGGER = LoggerFactory.getLogger(AssignmentService.class);
+    private static final List<AssignmentState> ACTIVE_STATES = List.of(AssignmentState.ACTIVE, AssignmentState.SUBMITTED);
 
     private final AssignmentRepository assignmentRepository;
     private final AssignmentTopicService assignmentTopicService;
+    private final TelegramMessageIdWriter telegramMessageIdWriter;
+    private final boolean writeBehindMessageIds;
     private final Random random = new Random();
+    private final ActiveAssignmentTable activeAssignments = new ActiveAssignmentTable(1024);
+
+    // Topics each user has been assigned, loaded on first use and then kept up to date
+    private final BoundedCache<Long, AssignedTopics> assignedTopicsByUserId;
 
     public AssignmentService(AssignmentRepository assignmentRepository,
-                             AssignmentTopicService assignmentTopicService) {
+                             AssignmentTopicService assignmentTopicService,
+                             TelegramMessageIdWriter telegramMessageIdWriter,
+                             @Value("${telegrambot.topic-index.max-users}") int maxUsers,
+                             @Value("${telegrambot.topic-index.ttl-hours}") long ttlHours,
+                             @Value("${telegrambot.assignment.write-behind}") boolean writeBehindMessageIds) {
         this.assignmentRepository = assignmentRepository;
         this.assignmentTopicService = assignmentTopicService;
+        this.telegramMessageIdWriter = telegramMessageIdWriter;
+        this.writeBehindMessageIds = writeBehindMessageIds;
+        this.assignedTopicsByUserId = new BoundedCache<>(maxUsers, Duration.ofHours(ttlHours));
     }
 
     /**
-     * Changes the state of an assignment (e.g., mark as DONE or CANCELLED).
+     * Loads the active assignments of all users from the database.
      */
-    @Transactional
-    public void changeAssignmentState(Assignment assignment, AssignmentState newState) {
-        assignment.setState(newState);
-        assignmentRepository.save(assignment);
+    @PostConstruct
+    public void rebuildActiveAssignments() {
+        List<ActiveAssignmentView> views = assignmentRepository.findAssignmentsByStates(ACTIVE_STATES);
+        activeAssignments.clear();
+        for (ActiveAssignmentView view : views) {
+            if (activeAssignments.get(view.getTelegramUserId()) != null) {
+                LOGGER.warn("Multiple active assignments found for user {}, using the latest one", view.getTelegramUserId());
+            }
+            activeAssignments.put(view.getTelegramUserId(), toActiveAssignment(view));
+        }
+        LOGGER.info("Loaded {} active assignments", activeAssignments.size());
     }
 
     /**
-     * Returns the user's current active assignment.
-     * Throws an exception if multiple active assignments exist.
+     * Reloads the user's active assignment from the database and drops their assigned topics, e.g. when
+     * they might have been changed elsewhere.
      */
     @Transactional(readOnly = true)
-    public Assignment getCurrentActiveAssignment(User user) {
-        List<Assignment> activeAssignments = assignmentRepository.findAssignmentsByUserIdAndStates(user.getId(), List.of(AssignmentState.ACTIVE, AssignmentState.SUBMITTED));
+    public void reloadActiveAssignment(User user) {
+        assignedTopicsByUserId.invalidate(user.getId());
+        List<ActiveAssignmentView> views = assignmentRepository.findAssignmentsByUserIdAndStates(user.getId(), ACTIVE_STATES);
+        if (views.size() > 1) {
+            LOGGER.warn("Multiple active assignments found for user {}, using the latest one", user.getTelegramId());
+        }
+        if (views.isEmpty()) {
+            activeAssignments.remove(user.getTelegramId());
+        } else {
+            activeAssignments.put(user.getTelegramId(), toActiveAssignment(views.get(views.size() - 1)));
+        }
+    }
+
+    /**
+     * Changes the state of an assignment (e.g., mark as DONE or CANCELLED).
+     */
+    @Transactional
+    public void changeAssignmentState(User user, ActiveAssignment assignment, AssignmentState newState) {
+        assignmentRepository.updateState(assignment.assignmentId(), newState, LocalDateTime.now());
+        afterCommit(() -> {
+            if (ACTIVE_STATES.contains(newState)) {
+                updateActiveAssignment(user, assignment.assignmentId(), current -> current.withState(newState));
+            } else if (isCurrent(user, assignment.assignmentId())) {
+                activeAssignments.remove(user.getTelegramId());
+            }
+        });
+    }
 
-        if (activeAssignments.isEmpty()) {
+    /**
+     * @return the user's current active assignment, or null if they have none
+     */
+    public ActiveAssignment getCurrentActiveAssignment(User user) {
+        ActiveAssignment activeAssignment = activeAssignments.get(user.getTelegramId());
+        if (activeAssignment == null) {
             LOGGER.info("No active assignment found.");
-            return null;
-        } else if (activeAssignments.size() > 1) {
-            throw new IllegalStateException("Multiple active assignments found for user.");
         }
-
-        return activeAssignments.get(0);
+        return activeAssignment;
     }
 
     /**
@@ -59,47 +122,130 @@ public class AssignmentService {
      * Ensures the user gets a topic they haven't had before.
      */
     @Transactional
-    public Assignment assignNewTopic(User user) {
-        List<Long> assignedTopicIds = assignmentRepository.findAssignedTopicIdsByUserId(user.getId());
+    public ActiveAssignment assignNewTopic(User user) {
+        AssignedTopics assignedTopics = getAssignedTopics(user);
 
-        List<AssignmentTopic> availableTopics = assignmentTopicService.getUnassignedActiveTopics(assignedTopicIds);
-        if (availableTopics.isEmpty()) {
+        // Pick a random topic
+        CatalogTopic randomTopic = assignedTopics.pickUnassigned(assignmentTopicService.getCatalog(), random);
+        if (randomTopic == null) {
             throw new IllegalStateException("No available new topics for the user " + user.getTelegramId());
         }
 
-        // Pick a random topic
-        AssignmentTopic randomTopic = availableTopics.get(random.nextInt(availableTopics.size()));
-
         // Create a new assignment
         Assignment newAssignment = new Assignment();
         newAssignment.setUser(user);
-        newAssignment.setTopic(randomTopic);
+        newAssignment.setTopic(assignmentTopicService.getReference(randomTopic.id()));
         newAssignment.setState(AssignmentState.ACTIVE);
 
-        return assignmentRepository.save(newAssignment);
+        Assignment savedAssignment = assignmentRepository.save(newAssignment);
+        ActiveAssignment activeAssignment = new ActiveAssignment(savedAssignment.getId(), AssignmentState.ACTIVE,
+                randomTopic.id(), null);
+        assignedTopics.add(randomTopic.id(), assignmentTopicService.getCatalog());
+        Long userId = user.getId();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    activeAssignments.put(user.getTelegramId(), activeAssignment);
+                } else {
+                    // The assigned topics have been updated before the transaction completed, reload them
+                    assignedTopicsByUserId.invalidate(userId);
+                }
+            }
+        });
+        return activeAssignment;
     }
 
+    /**
+     * @return the topic of the assignment from the in-memory catalog
+     */
+    public CatalogTopic getTopic(ActiveAssignment assignment) {
+        return assignmentTopicService.getTopic(assignment.topicId());
+    }
+
+    /**
+     * Remembers the message the assignment's keyboard is attached to. With write-behind enabled, the in-memory
+     * state is updated right away and the database is updated with the next batch.
+     */
+    public void setTelegramMessageId(User user, ActiveAssignment assignment, Integer telegramMessageId) {
+        if (writeBehindMessageIds && telegramMessageId != null) {
+            telegramMessageIdWriter.write(assignment.assignmentId(), telegramMessageId);
+        } else {
+            assignmentRepository.updateTelegramMessageId(assignment.assignmentId(), telegramMessageId, LocalDateTime.now());
+        }
+        updateActiveAssignment(user, assignment.assignmentId(), current -> current.withTelegramMessageId(telegramMessageId));
+    }
+
+    /**
+     * Finishes the current assignment, as DONE if it has been submitted and as CANCELLED otherwise, and assigns
+     * a new topic, all in one transaction.
+     *
+     * @return the new assignment, or null if there are no topics left; the current one is finished anyway
+     */
     @Transactional
-    public void setTelegramMessageId(Assignment assignment, Integer telegramMessageId) {
-        assignment.setTelegramMessageId(telegramMessageId);
-        assignmentRepository.save(assignment);
+    public ActiveAssignment replaceAssignment(User user, ActiveAssignment currentAssignment) {
+        AssignmentState finalState = currentAssignment.state() == AssignmentState.SUBMITTED
+                ? AssignmentState.DONE
+                : AssignmentState.CANCELLED;
+        changeAssignmentState(user, currentAssignment, finalState);
+        if (!hasAvailableTopics(user)) {
+            return null;
+        }
+        return assignNewTopic(user);
     }
 
     @Transactional(readOnly = false)
     public boolean hasAvailableTopics(User user) {
-        List<Long> assignedTopicIds = assignmentRepository.findAssignedTopicIdsByUserId(user.getId());
-        List<AssignmentTopic> availableTopics = assignmentTopicService.getUnassignedActiveTopics(assignedTopicIds);
+        boolean hasAvailableTopics = getAssignedTopics(user).remaining(assignmentTopicService.getCatalog()) > 0;
 
         // TODO: come up with a better way of dealing with no topics left
-        if (availableTopics.isEmpty()) {
+        if (!hasAvailableTopics) {
             LOGGER.warn("User {} has no more new topics. Checking for skipped topics...", user.getTelegramId());
 
             int deletedCount = assignmentRepository.deleteCancelledAssignmentsByUserId(user.getId());
             if (deletedCount > 0) {
                 LOGGER.info("Reset {} skipped topics for user {}.", deletedCount, user.getTelegramId());
+                assignedTopicsByUserId.invalidate(user.getId());
                 return true;
             }
         }
-        return !availableTopics.isEmpty();
+        return hasAvailableTopics;
+    }
+
+    private AssignedTopics getAssignedTopics(User user) {
+        AssignedTopics assignedTopics = assignedTopicsByUserId.get(user.getId());
+        if (assignedTopics == null) {
+            assignedTopics = new AssignedTopics(assignmentRepository.findAssignedTopicIdsByUserId(user.getId()));
+            assignedTopicsByUserId.put(user.getId(), assignedTopics);
+        }
+        return assignedTopics;
+    }
+
+    private boolean isCurrent(User user, long assignmentId) {
+        ActiveAssignment current = activeAssignments.get(user.getTelegramId());
+        return current != null && current.assignmentId() == assignmentId;
+    }
+
+    /**
+     * Applies the change to the user's active assignment if it is still the given one.
+     */
+    private void updateActiveAssignment(User user, long assignmentId, UnaryOperator<ActiveAssignment> change) {
+        ActiveAssignment current = activeAssignments.get(user.getTelegramId());
+        if (current != null && current.assignmentId() == assignmentId) {
+            activeAssignments.put(user.getTelegramId(), change.apply(current));
+        }
+    }
+
+    private static ActiveAssignment toActiveAssignment(ActiveAssignmentView view) {
+        return new ActiveAssignment(view.getAssignmentId(), view.getState(), view.getTopicId(), view.getTelegramMessageId());
+    }
+
+    private void afterCommit(Runnable action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 }
@@ -1,24 +1,98 @@
 package com.serhiidrahan.daily_sochinenie_de.service;
 
+import com.serhiidrahan.daily_sochinenie_de.dto.CatalogTopic;
 import com.serhiidrahan.daily_sochinenie_de.entity.AssignmentTopic;
+import com.serhiidrahan.daily_sochinenie_de.enums.Language;
 import com.serhiidrahan.daily_sochinenie_de.repository.AssignmentTopicRepository;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * Keeps all assignment topics in memory. Topics are static content, so they are loaded once at startup,
+ * with every assignment message rendered up front, and only reloaded by an explicit {@link #refresh()}.
+ */
 @Service
 public class AssignmentTopicService {
     private static final Logger LOGGER = LoggerFactory.getLogger(AssignmentTopicService.class);
+    private static final String DESCRIPTION_SEPARATOR = "\n\n- - - - - - - - - - - -\n\n";
 
     private final AssignmentTopicRepository topicRepository;
+    private final LocalizedMessagesService localizedMessagesService;
 
-    public AssignmentTopicService(AssignmentTopicRepository topicRepository) {
+    private volatile TopicCatalog catalog = TopicCatalog.EMPTY;
+
+    public AssignmentTopicService(AssignmentTopicRepository topicRepository,
+                                  LocalizedMessagesService localizedMessagesService) {
         this.topicRepository = topicRepository;
+        this.localizedMessagesService = localizedMessagesService;
+    }
+
+    /**
+     * Reloads the topics from the database. Call it after topics have been added or changed.
+     */
+    @PostConstruct
+    public void refresh() {
+        Map<Long, CatalogTopic> topicsById = new HashMap<>();
+        BitSet activeTopicIds = new BitSet();
+        for (AssignmentTopic topic : topicRepository.findAll()) {
+            CatalogTopic catalogTopic = render(topic);
+            topicsById.put(catalogTopic.id(), catalogTopic);
+            if (Boolean.TRUE.equals(topic.getActive())) {
+                activeTopicIds.set(Math.toIntExact(catalogTopic.id()));
+            }
+        }
+        catalog = new TopicCatalog(topicsById, activeTopicIds);
+        LOGGER.info("Loaded {} assignment topics, {} of them active", catalog.size(), catalog.activeCount());
+    }
+
+    public CatalogTopic getTopic(Long topicId) {
+        CatalogTopic topic = catalog.get(topicId);
+        if (topic == null) {
+            throw new IllegalArgumentException("Unknown assignment topic " + topicId);
+        }
+        return topic;
+    }
+
+    TopicCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * @return a reference to the topic entity for associating it with an assignment, without loading it
+     */
+    public AssignmentTopic getReference(long topicId) {
+        return topicRepository.getReferenceById(topicId);
     }
 
-    public List<AssignmentTopic> getUnassignedActiveTopics(List<Long> assignedTopicIds) {
-        return topicRepository.findUnassignedActiveTopics(assignedTopicIds);
+    private CatalogTopic render(AssignmentTopic topic) {
+        Map<Language, String> descriptions = new EnumMap<>(Language.class);
+        Map<Language, String> keywords = new EnumMap<>(Language.class);
+        Map<Language, String> assignmentTexts = new EnumMap<>(Language.class);
+        for (Language language : Language.values()) {
+            String topicText;
+            String descriptionText;
+            if (language.equals(Language.DE)) {
+                topicText = topic.getTopic(language);
+                descriptionText = topic.getDescription(language);
+            } else {
+                topicText = topic.getTopic(language) + " (" + topic.getTopic(Language.DE) + ")";
+                descriptionText = topic.getDescription(Language.DE) + DESCRIPTION_SEPARATOR + topic.getDescription(language);
+            }
+            descriptions.put(language, topic.getDescription(language));
+            keywords.put(language, topic.getKeywords(language));
+            assignmentTexts.put(language, localizedMessagesService.assignmentText(language,
+                    topicText,
+                    descriptionText,
+                    topic.getKeywords(language)));
+        }
+        return new CatalogTopic(topic.getId(), topic.getTopicDe(), topic.getDescriptionDe(), descriptions, keywords,
+                assignmentTexts);
     }
 }
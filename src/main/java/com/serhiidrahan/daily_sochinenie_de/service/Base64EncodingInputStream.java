@@ -0,0 +1,82 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Reads the Base64 encoding of the source stream, encoding it chunk by chunk as it's read.
+ */
+class Base64EncodingInputStream extends InputStream {
+    // A multiple of 3, so only the last chunk can need padding
+    private static final int CHUNK_SIZE = 3 * 1024;
+
+    private final InputStream source;
+    private final Base64.Encoder encoder = Base64.getEncoder();
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final byte[] encodedChunk = new byte[CHUNK_SIZE / 3 * 4];
+    private int position = 0;
+    private int limit = 0;
+    private boolean sourceExhausted = false;
+
+    Base64EncodingInputStream(InputStream source) {
+        this.source = source;
+    }
+
+    /**
+     * @return length of the Base64 encoding of {@code length} bytes
+     */
+    static long encodedLength(long length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return encodedChunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        Objects.checkFromIndexSize(offset, length, buffer.length);
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, limit - position);
+        System.arraycopy(encodedChunk, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    private boolean fill() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+        if (sourceExhausted) {
+            return false;
+        }
+
+        int count = source.readNBytes(chunk, 0, CHUNK_SIZE);
+        if (count < CHUNK_SIZE) {
+            sourceExhausted = true;
+        }
+        if (count == 0) {
+            return false;
+        }
+        limit = encoder.encode(count == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, count), encodedChunk);
+        position = 0;
+        return true;
+    }
+}
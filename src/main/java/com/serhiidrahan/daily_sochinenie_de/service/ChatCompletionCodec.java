@@ -0,0 +1,284 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.serhiidrahan.daily_sochinenie_de.dto.SubmissionEvaluation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes chat completion requests and reads their responses with Jackson's streaming API, without building
+ * JSON trees. Prompts are static, so they are encoded to JSON once and copied into every request as they are;
+ * only the model and the user message are encoded per request. Of a response, only the fields needed are read.
+ * <p>
+ * Requests list the system prompts first, most static first, and the user message last, so that requests with
+ * the same prompts share the longest possible prefix for OpenAI's prompt caching.
+ */
+final class ChatCompletionCodec {
+    private static final SerializedString MODEL = new SerializedString("model");
+    private static final SerializedString STREAM = new SerializedString("stream");
+    private static final SerializedString RESPONSE_FORMAT = new SerializedString("response_format");
+    private static final SerializedString MESSAGES = new SerializedString("messages");
+    private static final SerializedString ROLE = new SerializedString("role");
+    private static final SerializedString CONTENT = new SerializedString("content");
+    private static final SerializedString TYPE = new SerializedString("type");
+    private static final SerializedString TEXT = new SerializedString("text");
+    private static final SerializedString IMAGE_URL = new SerializedString("image_url");
+    private static final SerializedString URL = new SerializedString("url");
+    private static final SerializedString SYSTEM = new SerializedString("system");
+    private static final SerializedString USER = new SerializedString("user");
+    private static final SerializedString JSON_OBJECT = new SerializedString("json_object");
+    private static final String IMAGE_URL_PREFIX = "data:image/jpeg;base64,";
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final JsonFactory jsonFactory;
+    // There are only a few models, each is encoded once
+    private final Map<String, SerializedString> models = new ConcurrentHashMap<>();
+
+    ChatCompletionCodec(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * @return the prompt, encoded for {@link Request#systemPrompts()}
+     */
+    static SerializedString prompt(String text) {
+        SerializedString prompt = new SerializedString(text);
+        prompt.asQuotedUTF8();
+        return prompt;
+    }
+
+    /**
+     * A request, apart from the model, which is only chosen right before sending.
+     *
+     * @param systemPrompts prompts created by {@link #prompt(String)}
+     * @param userText      the text of the user message, null if it only holds an image
+     * @param withImage     whether the user message holds an image after the text, see {@link #encodeWithImage}
+     * @param jsonResponse  whether the answer must be a JSON object
+     */
+    record Request(List<SerializedString> systemPrompts, String userText, boolean withImage, boolean jsonResponse) {
+    }
+
+    /**
+     * The JSON of a request with an image, without the Base64-encoded image, which goes in between.
+     */
+    record ImageRequestBody(byte[] beforeImage, byte[] afterImage) {
+    }
+
+    byte[] encode(Request request, String model, boolean stream) throws IOException {
+        if (request.withImage()) {
+            throw new IllegalArgumentException("Request with image must be encoded with encodeWithImage");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        write(request, model, stream, out);
+        return out.toByteArray();
+    }
+
+    ImageRequestBody encodeWithImage(Request request, String model) throws IOException {
+        if (!request.withImage()) {
+            throw new IllegalArgumentException("Request has no image");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        int imageOffset = write(request, model, false, out);
+        byte[] json = out.toByteArray();
+        return new ImageRequestBody(Arrays.copyOfRange(json, 0, imageOffset), Arrays.copyOfRange(json, imageOffset, json.length));
+    }
+
+    /**
+     * @return the offset of the image in the written JSON, or -1 if there's no image
+     */
+    private int write(Request request, String model, boolean stream, ByteArrayOutputStream out) throws IOException {
+        int imageOffset = -1;
+        try (JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeFieldName(MODEL);
+            generator.writeString(models.computeIfAbsent(model, SerializedString::new));
+            if (stream) {
+                generator.writeFieldName(STREAM);
+                generator.writeBoolean(true);
+            }
+            if (request.jsonResponse()) {
+                generator.writeFieldName(RESPONSE_FORMAT);
+                generator.writeStartObject();
+                generator.writeFieldName(TYPE);
+                generator.writeString(JSON_OBJECT);
+                generator.writeEndObject();
+            }
+
+            generator.writeFieldName(MESSAGES);
+            generator.writeStartArray();
+            for (SerializedString prompt : request.systemPrompts()) {
+                generator.writeStartObject();
+                generator.writeFieldName(ROLE);
+                generator.writeString(SYSTEM);
+                generator.writeFieldName(CONTENT);
+                generator.writeString(prompt);
+                generator.writeEndObject();
+            }
+
+            generator.writeStartObject();
+            generator.writeFieldName(ROLE);
+            generator.writeString(USER);
+            generator.writeFieldName(CONTENT);
+            if (!request.withImage()) {
+                generator.writeString(request.userText());
+            } else {
+                generator.writeStartArray();
+                if (request.userText() != null) {
+                    generator.writeStartObject();
+                    generator.writeFieldName(TYPE);
+                    generator.writeString(TEXT);
+                    generator.writeFieldName(TEXT);
+                    generator.writeString(request.userText());
+                    generator.writeEndObject();
+                }
+                generator.writeStartObject();
+                generator.writeFieldName(TYPE);
+                generator.writeString(IMAGE_URL);
+                generator.writeFieldName(IMAGE_URL);
+                generator.writeStartObject();
+                generator.writeFieldName(URL);
+                generator.writeString(IMAGE_URL_PREFIX);
+                generator.flush();
+                // The image goes right before the closing quote of the URL
+                imageOffset = out.size() - 1;
+                generator.writeEndObject();
+                generator.writeEndObject();
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        return imageOffset;
+    }
+
+    /**
+     * @return the answer of a successful response, trimmed
+     */
+    String readMessageContent(InputStream body) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            String content = readText(parser, "choices", 0, "message", "content");
+            drain(parser);
+            if (content == null) {
+                throw new JsonParseException(parser, "Response has no message content");
+            }
+            return content.trim();
+        }
+    }
+
+    /**
+     * @return the error message of a failed response, empty if the response has none or isn't JSON at all
+     */
+    String readErrorMessage(InputStream body) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            String message = readText(parser, "error", "message");
+            drain(parser);
+            return message != null ? message : "";
+        } catch (JsonProcessingException e) {
+            return "";
+        }
+    }
+
+    /**
+     * @return the content delta of a streamed chunk, null if the chunk has none
+     */
+    String readDeltaContent(String chunk) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(chunk)) {
+            return readText(parser, "choices", 0, "delta", "content");
+        }
+    }
+
+    /**
+     * Reads the JSON object of a fused evaluation.
+     *
+     * @param submissionText the submitted text, or null to take the text recognized by OpenAI
+     */
+    SubmissionEvaluation readEvaluation(String content, String submissionText) throws IOException {
+        String text = "";
+        String language = "";
+        boolean related = false;
+        String feedback = "";
+        try (JsonParser parser = jsonFactory.createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Evaluation is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "text" -> text = parser.getValueAsString("");
+                    case "language" -> language = parser.getValueAsString("");
+                    case "related" -> related = parser.getValueAsBoolean(false);
+                    case "feedback" -> feedback = parser.getValueAsString("");
+                }
+                // Known fields may hold objects or arrays too, which are then read as empty
+                parser.skipChildren();
+            }
+        }
+        return new SubmissionEvaluation(submissionText != null ? submissionText : text.trim(), language, related, feedback.trim());
+    }
+
+    /**
+     * Reads up to the value at the path and returns it as text, skipping everything on the way without
+     * materializing it. Strings in the path select object fields, integers select array elements.
+     *
+     * @return the value, or null if there's no such value or it isn't a string
+     */
+    private static String readText(JsonParser parser, Object... path) throws IOException {
+        JsonToken token = parser.nextToken();
+        for (Object step : path) {
+            if (!findChild(parser, token, step)) {
+                return null;
+            }
+            token = parser.currentToken();
+        }
+        return token == JsonToken.VALUE_STRING ? parser.getText() : null;
+    }
+
+    /**
+     * Moves the parser from the start of an object or array to the value of the field or element.
+     */
+    private static boolean findChild(JsonParser parser, JsonToken token, Object step) throws IOException {
+        if (step instanceof String field && token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                if (name.equals(field)) {
+                    return true;
+                }
+                parser.skipChildren();
+            }
+        } else if (step instanceof Integer index && token == JsonToken.START_ARRAY) {
+            for (int i = 0; (token = parser.nextToken()) != null && token != JsonToken.END_ARRAY; i++) {
+                if (i == index) {
+                    return true;
+                }
+                parser.skipChildren();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the rest of the response, so that the connection can be reused.
+     */
+    private static void drain(JsonParser parser) throws IOException {
+        while (parser.nextToken() != null) {
+            parser.skipChildren();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Consumes the server-sent events of a streamed chat completion line by line and accumulates
+ * the content deltas of the first choice.
+ */
+class ChatCompletionStreamSubscriber implements Flow.Subscriber<String> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatCompletionStreamSubscriber.class);
+    private static final String DATA_PREFIX = "data:";
+    private static final String DONE_MARKER = "[DONE]";
+
+    private final ChatCompletionCodec codec;
+    private final Consumer<String> onPartialContent;
+    private final StringBuilder content = new StringBuilder();
+    // Anything that is not an event, e.g. the JSON error body of a non-200 response
+    private final StringBuilder nonEventBody = new StringBuilder();
+
+    ChatCompletionStreamSubscriber(ChatCompletionCodec codec, Consumer<String> onPartialContent) {
+        this.codec = codec;
+        this.onPartialContent = onPartialContent;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (!line.startsWith(DATA_PREFIX)) {
+            nonEventBody.append(line);
+            return;
+        }
+
+        String data = line.substring(DATA_PREFIX.length()).trim();
+        if (data.equals(DONE_MARKER)) {
+            return;
+        }
+
+        try {
+            String delta = codec.readDeltaContent(data);
+            if (delta == null || delta.isEmpty()) {
+                return;
+            }
+            content.append(delta);
+        } catch (IOException e) {
+            LOGGER.warn("Skipping malformed chat completion chunk: {}", data);
+            return;
+        }
+
+        try {
+            onPartialContent.accept(content.toString());
+        } catch (RuntimeException e) {
+            LOGGER.error("Error handling partial chat completion content", e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        // The error is propagated through the response future
+    }
+
+    @Override
+    public void onComplete() {
+    }
+
+    String getContent() {
+        return content.toString();
+    }
+
+    String getNonEventBody() {
+        return nonEventBody.toString();
+    }
+}
@@ -99,6 +99,26 @@ public class LocalizedMessagesService {
         return messageSource.getMessage("topic.done", null, locale);
     }
 
+    public String stillProcessing(Language language) {
+        Locale locale = getLocale(language);
+        return messageSource.getMessage("info.still_processing", null, locale);
+    }
+
+    public String queuePosition(Language language, int position) {
+        Locale locale = getLocale(language);
+        return messageSource.getMessage("info.queue_position", new Object[]{position}, locale);
+    }
+
+    public String submissionQueueFull(Language language) {
+        Locale locale = getLocale(language);
+        return messageSource.getMessage("info.submission_queue_full", null, locale);
+    }
+
+    public String submissionDiscarded(Language language) {
+        Locale locale = getLocale(language);
+        return messageSource.getMessage("info.submission_discarded", null, locale);
+    }
+
     public String privacyPolicy(Language language) {
         Locale locale = getLocale(language);
         return messageSource.getMessage("info.privacy_policy", null, locale);
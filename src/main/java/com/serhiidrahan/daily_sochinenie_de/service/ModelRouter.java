@@ -0,0 +1,171 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import com.serhiidrahan.daily_sochinenie_de.enums.OpenAITask;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the model for every kind of OpenAI request. Each kind has a primary and a fallback model: while the
+ * primary model is too slow (its average latency is over the threshold) or fails too often (its error rate
+ * among the latest requests is over the threshold), requests go to the fallback model for the cooldown,
+ * after which the primary model gets another chance. With the same model for both, there is no fallback.
+ */
+@Component
+public class ModelRouter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelRouter.class);
+    private static final int ERROR_WINDOW = 20;
+    private static final int MIN_ERROR_SAMPLES = 5;
+    // Weight of the latest latency in the moving average
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final Map<OpenAITask, TaskRoutes> routes = new EnumMap<>(OpenAITask.class);
+    private final double errorRateThreshold;
+    private final long cooldownNanos;
+
+    public ModelRouter(MeterRegistry meterRegistry,
+                       @Value("${openai.models.ocr.primary}") String ocrPrimary,
+                       @Value("${openai.models.ocr.fallback}") String ocrFallback,
+                       @Value("${openai.models.ocr.latency-threshold-ms}") long ocrLatencyThresholdMillis,
+                       @Value("${openai.models.validation.primary}") String validationPrimary,
+                       @Value("${openai.models.validation.fallback}") String validationFallback,
+                       @Value("${openai.models.validation.latency-threshold-ms}") long validationLatencyThresholdMillis,
+                       @Value("${openai.models.feedback.primary}") String feedbackPrimary,
+                       @Value("${openai.models.feedback.fallback}") String feedbackFallback,
+                       @Value("${openai.models.feedback.latency-threshold-ms}") long feedbackLatencyThresholdMillis,
+                       @Value("${openai.models.error-rate-threshold}") double errorRateThreshold,
+                       @Value("${openai.models.cooldown-seconds}") long cooldownSeconds) {
+        this.errorRateThreshold = errorRateThreshold;
+        this.cooldownNanos = TimeUnit.SECONDS.toNanos(cooldownSeconds);
+        routes.put(OpenAITask.OCR, new TaskRoutes(OpenAITask.OCR, ocrPrimary, ocrFallback, ocrLatencyThresholdMillis, meterRegistry));
+        routes.put(OpenAITask.VALIDATION, new TaskRoutes(OpenAITask.VALIDATION, validationPrimary, validationFallback,
+                validationLatencyThresholdMillis, meterRegistry));
+        routes.put(OpenAITask.FEEDBACK, new TaskRoutes(OpenAITask.FEEDBACK, feedbackPrimary, feedbackFallback,
+                feedbackLatencyThresholdMillis, meterRegistry));
+    }
+
+    /**
+     * @return the model the next request of the kind should use
+     */
+    public Route route(OpenAITask task) {
+        return routes.get(task).route();
+    }
+
+    /**
+     * @return the primary model of the kind of request, e.g. for cache keys
+     */
+    public String primaryModel(OpenAITask task) {
+        return routes.get(task).primary;
+    }
+
+    /**
+     * Takes the outcome of a request into account for the routing of the following ones.
+     *
+     * @param failed whether the request failed in a way that may be the model's fault, e.g. an overload or a timeout
+     */
+    public void record(Route route, long latencyNanos, boolean failed) {
+        if (!route.fallback()) {
+            routes.get(route.task()).recordPrimary(latencyNanos, failed);
+        }
+    }
+
+    public record Route(OpenAITask task, String model, boolean fallback) {
+    }
+
+    private final class TaskRoutes {
+        private final OpenAITask task;
+        private final String primary;
+        private final String fallback;
+        private final long latencyThresholdNanos;
+        private final Route primaryRoute;
+        private final Route fallbackRoute;
+        private final Counter primaryRequests;
+        private final Counter fallbackRequests;
+
+        // Guarded by this
+        private double averageLatencyNanos = Double.NaN;
+        private final boolean[] failures = new boolean[ERROR_WINDOW];
+        private int outcomeCount = 0;
+        private int nextOutcome = 0;
+        private long fallbackUntilNanos = System.nanoTime();
+        private boolean fallbackActive = false;
+
+        private TaskRoutes(OpenAITask task, String primary, String fallback, long latencyThresholdMillis,
+                           MeterRegistry meterRegistry) {
+            this.task = task;
+            this.primary = primary;
+            this.fallback = fallback;
+            this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+            this.primaryRoute = new Route(task, primary, false);
+            this.fallbackRoute = new Route(task, fallback, true);
+            String taskTag = task.name().toLowerCase();
+            this.primaryRequests = meterRegistry.counter("openai.model_routing", "task", taskTag, "model", primary, "route", "primary");
+            this.fallbackRequests = meterRegistry.counter("openai.model_routing", "task", taskTag, "model", fallback, "route", "fallback");
+            meterRegistry.gauge("openai.model_routing.fallback_active", List.of(Tag.of("task", taskTag)), this,
+                    routes -> routes.isFallbackActive() ? 1 : 0);
+        }
+
+        private Route route() {
+            boolean useFallback;
+            synchronized (this) {
+                if (fallbackActive && System.nanoTime() - fallbackUntilNanos >= 0) {
+                    fallbackActive = false;
+                    LOGGER.info("Trying {} again for {} requests", primary, task);
+                }
+                useFallback = fallbackActive;
+            }
+            if (useFallback) {
+                fallbackRequests.increment();
+                return fallbackRoute;
+            }
+            primaryRequests.increment();
+            return primaryRoute;
+        }
+
+        private synchronized void recordPrimary(long latencyNanos, boolean failed) {
+            if (fallbackActive || primary.equals(fallback)) {
+                return;
+            }
+
+            if (!failed) {
+                averageLatencyNanos = Double.isNaN(averageLatencyNanos)
+                        ? latencyNanos
+                        : LATENCY_SMOOTHING * latencyNanos + (1 - LATENCY_SMOOTHING) * averageLatencyNanos;
+            }
+            failures[nextOutcome] = failed;
+            nextOutcome = (nextOutcome + 1) % ERROR_WINDOW;
+            outcomeCount = Math.min(outcomeCount + 1, ERROR_WINDOW);
+
+            int failureCount = 0;
+            for (int i = 0; i < outcomeCount; i++) {
+                failureCount += failures[i] ? 1 : 0;
+            }
+            boolean tooSlow = averageLatencyNanos > latencyThresholdNanos;
+            boolean tooUnreliable = outcomeCount >= MIN_ERROR_SAMPLES && (double) failureCount / outcomeCount > errorRateThreshold;
+            if (tooSlow || tooUnreliable) {
+                LOGGER.warn("{} is {} for {} requests (average latency {} ms, {} of {} failed), falling back to {}",
+                        primary, tooSlow ? "too slow" : "failing", task, (long) (averageLatencyNanos / 1_000_000),
+                        failureCount, outcomeCount, fallback);
+                fallbackActive = true;
+                fallbackUntilNanos = System.nanoTime() + cooldownNanos;
+                // The primary model starts afresh after the cooldown
+                averageLatencyNanos = Double.NaN;
+                outcomeCount = 0;
+                nextOutcome = 0;
+            }
+        }
+
+        private synchronized boolean isFallbackActive() {
+            return fallbackActive;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.api.objects.PhotoSize;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps photos sent for recognition as small as possible without hurting legibility: picks the smallest
+ * size Telegram offers that is still large enough to read handwriting, and downscales and converts it to
+ * grayscale locally if necessary. Fewer pixels mean fewer image tiles billed and faster recognition.
+ */
+@Service
+public class PhotoPreparationService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PhotoPreparationService.class);
+
+    private final int minLongSide;
+    private final int maxLongSide;
+    private final boolean grayscale;
+    private final float jpegQuality;
+
+    public PhotoPreparationService(@Value("${telegrambot.photo.min-long-side}") int minLongSide,
+                                   @Value("${telegrambot.photo.max-long-side}") int maxLongSide,
+                                   @Value("${telegrambot.photo.grayscale}") boolean grayscale,
+                                   @Value("${telegrambot.photo.jpeg-quality}") float jpegQuality) {
+        this.minLongSide = minLongSide;
+        this.maxLongSide = maxLongSide;
+        this.grayscale = grayscale;
+        this.jpegQuality = jpegQuality;
+    }
+
+    /**
+     * @return the smallest size whose longer side is at least the legibility minimum, or the largest one if none is
+     */
+    public PhotoSize selectPhoto(List<PhotoSize> photos) {
+        Comparator<PhotoSize> byLongSide = Comparator.comparingInt(this::longSide);
+        return photos.stream()
+                .filter(photo -> longSide(photo) >= minLongSide)
+                .min(byLongSide)
+                .or(() -> photos.stream().max(byLongSide))
+                .orElseThrow(() -> new IllegalArgumentException("No photo found in message"));
+    }
+
+    /**
+     * Downscales the image to the maximum size and converts it to grayscale, replacing the file with the result.
+     * Leaves the file as it is if there's nothing to do or it can't be processed.
+     */
+    public void prepare(File imageFile) {
+        try {
+            BufferedImage image = ImageIO.read(imageFile);
+            if (image == null) {
+                LOGGER.warn("Unsupported image format of {}, sending it as is", imageFile);
+                return;
+            }
+
+            int longSide = Math.max(image.getWidth(), image.getHeight());
+            boolean needsDownscaling = longSide > maxLongSide;
+            boolean needsGrayscale = grayscale && image.getType() != BufferedImage.TYPE_BYTE_GRAY;
+            if (!needsDownscaling && !needsGrayscale) {
+                return;
+            }
+
+            double scale = needsDownscaling ? (double) maxLongSide / longSide : 1.0;
+            int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+            int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+            BufferedImage prepared = new BufferedImage(width, height,
+                    grayscale ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = prepared.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(image, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+
+            long originalSize = imageFile.length();
+            writeJpeg(prepared, imageFile);
+            LOGGER.debug("Prepared photo {}x{} ({} bytes) -> {}x{} ({} bytes)", image.getWidth(), image.getHeight(),
+                    originalSize, width, height, imageFile.length());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Error preparing photo {}, sending it as is", imageFile, e);
+        }
+    }
+
+    private void writeJpeg(BufferedImage image, File file) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(jpegQuality);
+
+        // Written next to the file and moved over it only once complete, so a failure leaves the original intact
+        Path target = file.toPath();
+        Path temporary = Files.createTempFile(target.toAbsolutePath().getParent(), "prepared-", ".jpg");
+        try {
+            try (OutputStream fileOutput = Files.newOutputStream(temporary);
+                 ImageOutputStream output = ImageIO.createImageOutputStream(fileOutput)) {
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(image, null, null), param);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            writer.dispose();
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private int longSide(PhotoSize photo) {
+        return Math.max(photo.getWidth(), photo.getHeight());
+    }
+}
@@ -0,0 +1,169 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import com.serhiidrahan.daily_sochinenie_de.entity.CachedResponse;
+import com.serhiidrahan.daily_sochinenie_de.infrastructure.BoundedCache;
+import com.serhiidrahan.daily_sochinenie_de.repository.CachedResponseRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Caches OpenAI responses by a hash of everything that determines them, so identical resubmissions
+ * are answered without another request. Recently used responses are kept in memory; with the
+ * persistent tier enabled, all of them but those put in memory only are also stored in the database.
+ */
+@Service
+public class ResponseCacheService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCacheService.class);
+
+    private final CachedResponseRepository cachedResponseRepository;
+    private final ExecutorService executorService;
+    private final BoundedCache<String, String> memoryCache;
+    private final Duration ttl;
+    private final boolean persistent;
+
+    private final Counter memoryHits;
+    private final Counter databaseHits;
+    private final Counter misses;
+
+    public ResponseCacheService(CachedResponseRepository cachedResponseRepository, ExecutorService botExecutor,
+                                MeterRegistry meterRegistry,
+                                @Value("${openai.cache.max-entries}") int maxEntries,
+                                @Value("${openai.cache.ttl-hours}") long ttlHours,
+                                @Value("${openai.cache.persistent}") boolean persistent) {
+        this.cachedResponseRepository = cachedResponseRepository;
+        this.executorService = botExecutor;
+        this.ttl = Duration.ofHours(ttlHours);
+        this.memoryCache = new BoundedCache<>(maxEntries, ttl);
+        this.persistent = persistent;
+        this.memoryHits = meterRegistry.counter("openai.response_cache", "result", "hit", "tier", "memory");
+        this.databaseHits = meterRegistry.counter("openai.response_cache", "result", "hit", "tier", "database");
+        this.misses = meterRegistry.counter("openai.response_cache", "result", "miss");
+    }
+
+    /**
+     * Builds the cache key of a request. Submissions differing only in whitespace or Unicode normalization
+     * get the same key.
+     *
+     * @param requestType   kind of the request, e.g. "validation"
+     * @param promptVersion version of the prompt, to be changed whenever the prompt changes
+     * @param parts         the variable inputs of the request
+     */
+    public String key(String requestType, String promptVersion, String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((requestType + '\u0000' + promptVersion).getBytes(StandardCharsets.UTF_8));
+            for (String part : parts) {
+                digest.update((byte) 0);
+                digest.update(normalize(part).getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return the cached response, or null if there is none
+     */
+    public String get(String key) {
+        String response = memoryCache.get(key);
+        if (response != null) {
+            memoryHits.increment();
+            return response;
+        }
+
+        if (persistent) {
+            Optional<CachedResponse> cachedResponse = cachedResponseRepository.findByCacheKey(key);
+            if (cachedResponse.isPresent() && cachedResponse.get().getCreationDate().isAfter(LocalDateTime.now().minus(ttl))) {
+                databaseHits.increment();
+                memoryCache.put(key, cachedResponse.get().getResponse());
+                return cachedResponse.get().getResponse();
+            }
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Like {@link #get(String)}, without looking into the persistent tier.
+     */
+    public String getFromMemory(String key) {
+        String response = memoryCache.get(key);
+        if (response != null) {
+            memoryHits.increment();
+        } else {
+            misses.increment();
+        }
+        return response;
+    }
+
+    /**
+     * Caches a response in memory only, even with the persistent tier enabled.
+     * For responses quoting what the user sent, which the bot doesn't store in its database.
+     */
+    public void putInMemory(String key, String response) {
+        memoryCache.put(key, response);
+    }
+
+    public void put(String key, String response) {
+        memoryCache.put(key, response);
+        if (persistent) {
+            // Responses arrive on the HTTP client's threads, don't block them with database writes
+            executorService.execute(() -> store(key, response));
+        }
+    }
+
+    private void store(String key, String response) {
+        try {
+            CachedResponse cachedResponse = cachedResponseRepository.findByCacheKey(key).orElseGet(CachedResponse::new);
+            cachedResponse.setCacheKey(key);
+            cachedResponse.setResponse(response);
+            // Restart the time to live of an expired entry
+            cachedResponse.setCreationDate(LocalDateTime.now());
+            cachedResponseRepository.save(cachedResponse);
+        } catch (DataIntegrityViolationException e) {
+            LOGGER.debug("Response {} has been cached concurrently", key);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error storing cached response {}", key, e);
+        }
+    }
+
+    /**
+     * Deletes stored responses once their time to live is over, since they would never be read again.
+     */
+    @Scheduled(fixedDelayString = "${openai.cache.purge-interval-ms}")
+    public void purgeExpired() {
+        if (!persistent) {
+            return;
+        }
+        try {
+            int purged = cachedResponseRepository.deleteCreatedBefore(LocalDateTime.now().minus(ttl));
+            if (purged > 0) {
+                LOGGER.info("Purged {} expired cached responses", purged);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Error purging expired cached responses", e);
+        }
+    }
+
+    private String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFC).strip().replaceAll("\\s+", " ");
+    }
+}
@@ -0,0 +1,271 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import com.serhiidrahan.daily_sochinenie_de.dto.SubmissionJob;
+import com.serhiidrahan.daily_sochinenie_de.enums.SubmissionJobState;
+import com.serhiidrahan.daily_sochinenie_de.enums.SubmissionKind;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Submissions being evaluated or waiting for it, kept in the database so they survive restarts. A submission
+ * is queued already claimed by the instance that received it, which evaluates it right away. Jobs put back
+ * after an error are claimed by workers with {@code FOR UPDATE SKIP LOCKED}, so several instances can take jobs
+ * from the same table. A claimed job is leased to the instance and the lease is renewed while the job runs;
+ * a job whose lease has expired, because its instance crashed, is claimed again. A job claimed more than
+ * max-attempts times fails.
+ */
+@Component
+public class SubmissionJobQueue {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubmissionJobQueue.class);
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final String PENDING = SubmissionJobState.PENDING.name();
+    private static final String RUNNING = SubmissionJobState.RUNNING.name();
+    private static final String FAILED = SubmissionJobState.FAILED.name();
+    private static final String BACKLOG_SQL =
+            "SELECT COUNT(*) FROM submission_job WHERE state IN (?, ?)";
+    private static final String INSERT_SQL =
+            "INSERT INTO submission_job (creation_date, telegram_user_id, chat_id, assignment_id, kind, payload, "
+                    + "photo_unique_id, state, owner, lease_expires_at, attempts) "
+                    + "VALUES (NOW(), ?, ?, ?, ?, ?, ?, ?, ?, DATE_ADD(NOW(3), INTERVAL ? SECOND), 1)";
+    private static final String CLAIMABLE_SQL =
+            "SELECT id, telegram_user_id, chat_id, assignment_id, kind, payload, photo_unique_id, attempts "
+                    + "FROM submission_job "
+                    + "WHERE state = ? OR (state = ? AND lease_expires_at < NOW(3)) "
+                    + "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
+    private static final String CLAIM_SQL =
+            "UPDATE submission_job SET state = ?, owner = ?, lease_expires_at = DATE_ADD(NOW(3), INTERVAL ? SECOND), "
+                    + "attempts = attempts + 1, last_modified_date = NOW() WHERE id = ?";
+    private static final String RENEW_SQL =
+            "UPDATE submission_job SET lease_expires_at = DATE_ADD(NOW(3), INTERVAL ? SECOND) "
+                    + "WHERE id = ? AND state = ? AND owner = ?";
+    private static final String COMPLETE_SQL = "DELETE FROM submission_job WHERE id = ? AND owner = ?";
+    private static final String RETRY_SQL =
+            "UPDATE submission_job SET state = ?, owner = NULL, lease_expires_at = NULL, last_error = ?, "
+                    + "last_modified_date = NOW() WHERE id = ? AND owner = ?";
+    private static final String FAIL_SQL =
+            "UPDATE submission_job SET state = ?, payload = '', owner = NULL, lease_expires_at = NULL, last_error = ?, "
+                    + "last_modified_date = NOW() WHERE id = ?";
+    private static final String RELEASE_SQL =
+            "UPDATE submission_job SET state = ?, owner = NULL, lease_expires_at = NULL, attempts = attempts - 1, "
+                    + "last_modified_date = NOW() WHERE id = ? AND state = ? AND owner = ?";
+    private static final String PURGE_FAILED_SQL =
+            "DELETE FROM submission_job WHERE state = ? AND last_modified_date < DATE_SUB(NOW(), INTERVAL ? HOUR)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String instanceId;
+    private final int maxBacklog;
+    private final int maxAttempts;
+    private final long leaseSeconds;
+    private final long failedRetentionHours;
+
+    // Jobs this instance is running
+    private final Set<Long> runningJobIds = ConcurrentHashMap.newKeySet();
+    private volatile Runnable enqueueListener = () -> {
+    };
+
+    public SubmissionJobQueue(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                              MeterRegistry meterRegistry,
+                              @Value("${telegrambot.cluster.instance-id}") String instanceId,
+                              @Value("${telegrambot.submission-jobs.max-backlog}") int maxBacklog,
+                              @Value("${telegrambot.submission-jobs.max-attempts}") int maxAttempts,
+                              @Value("${telegrambot.submission-jobs.lease-seconds}") long leaseSeconds,
+                              @Value("${telegrambot.submission-jobs.failed-retention-hours}") long failedRetentionHours) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.instanceId = instanceId;
+        this.maxBacklog = maxBacklog;
+        this.maxAttempts = maxAttempts;
+        this.leaseSeconds = leaseSeconds;
+        this.failedRetentionHours = failedRetentionHours;
+        meterRegistry.gauge("submission_jobs.backlog", this, SubmissionJobQueue::backlog);
+    }
+
+    /**
+     * Registers what to do after a job has been put back into the queue, e.g. wake up the workers.
+     */
+    public void onEnqueued(Runnable listener) {
+        this.enqueueListener = listener;
+    }
+
+    /**
+     * Queues a submission claimed by this instance, which is to run it right away and {@link #finish} it.
+     *
+     * @return the job, or null if the backlog is full, in which case nothing is queued
+     */
+    public SubmissionJob enqueue(long telegramUserId, long chatId, long assignmentId, SubmissionKind kind,
+                                 String payload, String photoUniqueId) {
+        int backlog = backlog();
+        if (backlog >= maxBacklog) {
+            LOGGER.warn("Submission backlog is full ({} jobs), rejecting submission of user {}", backlog, telegramUserId);
+            return null;
+        }
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+            statement.setLong(1, telegramUserId);
+            statement.setLong(2, chatId);
+            statement.setLong(3, assignmentId);
+            statement.setString(4, kind.name());
+            statement.setString(5, payload);
+            statement.setString(6, photoUniqueId);
+            statement.setString(7, RUNNING);
+            statement.setString(8, instanceId);
+            statement.setLong(9, leaseSeconds);
+            return statement;
+        }, keyHolder);
+        SubmissionJob job = new SubmissionJob(keyHolder.getKeyAs(Number.class).longValue(), telegramUserId, chatId,
+                assignmentId, kind, payload, photoUniqueId, 1);
+        runningJobIds.add(job.id());
+        return job;
+    }
+
+    /**
+     * @return how many jobs are waiting or running, on all instances
+     */
+    public int backlog() {
+        Integer backlog = jdbcTemplate.queryForObject(BACKLOG_SQL, Integer.class, PENDING, RUNNING);
+        return backlog == null ? 0 : backlog;
+    }
+
+    /**
+     * Claims up to {@code limit} jobs for this instance, oldest first. Jobs that have been claimed too many
+     * times already are marked as failed instead.
+     */
+    public Claimed claim(int limit) {
+        Claimed claimed = transactionTemplate.execute(status -> {
+            List<SubmissionJob> candidates = jdbcTemplate.query(CLAIMABLE_SQL, (rs, rowNum) -> new SubmissionJob(
+                    rs.getLong("id"),
+                    rs.getLong("telegram_user_id"),
+                    rs.getLong("chat_id"),
+                    rs.getLong("assignment_id"),
+                    SubmissionKind.valueOf(rs.getString("kind")),
+                    rs.getString("payload"),
+                    rs.getString("photo_unique_id"),
+                    rs.getInt("attempts") + 1), PENDING, RUNNING, limit);
+
+            List<SubmissionJob> runnable = new ArrayList<>();
+            List<SubmissionJob> exhausted = new ArrayList<>();
+            for (SubmissionJob job : candidates) {
+                if (job.attempts() > maxAttempts) {
+                    jdbcTemplate.update(FAIL_SQL, FAILED, "Claimed " + maxAttempts + " times without finishing", job.id());
+                    exhausted.add(job);
+                } else {
+                    jdbcTemplate.update(CLAIM_SQL, RUNNING, instanceId, leaseSeconds, job.id());
+                    runnable.add(job);
+                }
+            }
+            return new Claimed(runnable, exhausted);
+        });
+        claimed.runnable().forEach(job -> runningJobIds.add(job.id()));
+        return claimed;
+    }
+
+    /**
+     * Completes the job if it ran without an error, otherwise puts it back into the queue.
+     */
+    public void finish(SubmissionJob job, Throwable error) {
+        if (error == null) {
+            complete(job);
+        } else {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            LOGGER.error("Error running submission job {} of user {}, attempt {}", job.id(), job.telegramUserId(),
+                    job.attempts(), cause);
+            retry(job, cause);
+        }
+    }
+
+    /**
+     * Removes the job once it has been processed.
+     */
+    public void complete(SubmissionJob job) {
+        runningJobIds.remove(job.id());
+        jdbcTemplate.update(COMPLETE_SQL, job.id(), instanceId);
+    }
+
+    /**
+     * Puts the job back into the queue after an error. It fails once it has been claimed max-attempts times.
+     */
+    public void retry(SubmissionJob job, Throwable error) {
+        runningJobIds.remove(job.id());
+        String message = String.valueOf(error);
+        message = message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+        jdbcTemplate.update(RETRY_SQL, PENDING, message, job.id(), instanceId);
+        enqueueListener.run();
+    }
+
+    /**
+     * @return whether this instance is running any jobs
+     */
+    public boolean isRunningAny() {
+        return !runningJobIds.isEmpty();
+    }
+
+    /**
+     * Puts the jobs still running on this instance back into the queue, e.g. on shutdown; the interrupted
+     * attempts don't count.
+     */
+    public void releaseRunning() {
+        for (Long jobId : runningJobIds) {
+            jdbcTemplate.update(RELEASE_SQL, PENDING, jobId, RUNNING, instanceId);
+        }
+        if (!runningJobIds.isEmpty()) {
+            LOGGER.info("Put {} unfinished submission jobs back into the queue", runningJobIds.size());
+        }
+        runningJobIds.clear();
+    }
+
+    /**
+     * Extends the leases of the running jobs, so that long evaluations aren't taken over by other workers.
+     */
+    @Scheduled(fixedDelayString = "${telegrambot.submission-jobs.renew-interval-ms}")
+    public void renew() {
+        if (runningJobIds.isEmpty()) {
+            return;
+        }
+        List<Object[]> batch = new ArrayList<>();
+        for (Long jobId : runningJobIds) {
+            batch.add(new Object[]{leaseSeconds, jobId, RUNNING, instanceId});
+        }
+        int[] updated = jdbcTemplate.batchUpdate(RENEW_SQL, batch);
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                LOGGER.warn("Lease of submission job {} has been lost", batch.get(i)[1]);
+            }
+        }
+    }
+
+    /**
+     * Deletes failed jobs once they've been kept for the retention period, so they don't pile up.
+     */
+    @Scheduled(fixedDelayString = "${telegrambot.submission-jobs.purge-interval-ms}")
+    public void purgeFailed() {
+        int purged = jdbcTemplate.update(PURGE_FAILED_SQL, FAILED, failedRetentionHours);
+        if (purged > 0) {
+            LOGGER.info("Purged {} failed submission jobs", purged);
+        }
+    }
+
+    /**
+     * @param runnable  jobs claimed by this instance
+     * @param exhausted jobs that have been marked as failed; their users should be told
+     */
+    public record Claimed(List<SubmissionJob> runnable, List<SubmissionJob> exhausted) {
+    }
+}
@@ -0,0 +1,296 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import com.serhiidrahan.daily_sochinenie_de.dto.CatalogTopic;
+import com.serhiidrahan.daily_sochinenie_de.enums.Language;
+import com.serhiidrahan.daily_sochinenie_de.enums.PreValidationVerdict;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Decides the obvious cases of submission validation locally, without asking OpenAI.
+ * <p>
+ * The language is identified with a character trigram naive Bayes model trained on the topic descriptions,
+ * which exist in every language the bot speaks. Relevance is the overlap of word stems of the submission with
+ * the topic's German title, keywords and description; stems occurring in many topics and function words don't count.
+ * <p>
+ * A clearly German text is accepted if it mentions the topic's title and shares enough other stems with the topic.
+ * A text that is clearly not German is rejected only if that's enabled, until the thresholds are validated on real
+ * submissions; otherwise it's left to OpenAI like everything else. Few shared stems don't make a text unrelated,
+ * since a paraphrase of the topic may share none. The model is rebuilt whenever the topics are reloaded.
+ */
+@Service
+public class SubmissionPreValidator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubmissionPreValidator.class);
+    private static final int MIN_WORD_LENGTH = 4;
+    private static final int STEM_LENGTH = 5;
+    // Stems found in a bigger share of all topics say nothing about any single one
+    private static final double MAX_TOPIC_SHARE = 0.25;
+    // Weight of the trigram frequencies of all languages together in the probability of a trigram in one language
+    private static final double BACKGROUND_WEIGHT = 0.1;
+    private static final Set<String> STOP_WORDS = Set.of(
+            "aber", "alle", "allem", "allen", "alles", "also", "andere", "anderen", "auch", "bester", "beste",
+            "bitte", "dabei", "damit", "dann", "daran", "darauf", "darüber", "davon", "dass", "dein", "deine",
+            "deinem", "deinen", "deiner", "denn", "dich", "diese", "diesem", "diesen", "dieser", "dieses", "doch",
+            "dort", "durch", "eine", "einem", "einen", "einer", "eines", "einmal", "etwas", "euch", "ganz", "gegen",
+            "geht", "gern", "gerne", "gibt", "habe", "haben", "hast", "hatte", "hatten", "heute", "hier", "ihnen",
+            "ihre", "ihrem", "ihren", "ihrer", "immer", "jede", "jedem", "jeden", "jeder", "jetzt", "kann", "keine",
+            "können", "könnte", "mein", "meine", "meinem", "meinen", "meiner", "mich", "möchte", "möchten", "muss",
+            "müssen", "nach", "nicht", "noch", "ohne", "oder", "schon", "sehr", "sein", "seine", "seinem", "seinen",
+            "sich", "sind", "sollte", "über", "unser", "unsere", "viel", "viele", "vielleicht", "wann", "warum",
+            "weil", "welche", "welchen", "welcher", "wenn", "werden", "wieder", "will", "wird", "wollen", "wurde",
+            "würde", "während", "zwischen");
+
+    private final AssignmentTopicService assignmentTopicService;
+    private final boolean enabled;
+    private final double languageMargin;
+    private final int minTrigrams;
+    private final int acceptMinMatches;
+    private final boolean rejectOtherLanguages;
+    private final Map<PreValidationVerdict, Counter> verdicts = new EnumMap<>(PreValidationVerdict.class);
+    private final Counter escalatedRejects;
+
+    private volatile Model model;
+
+    public SubmissionPreValidator(AssignmentTopicService assignmentTopicService,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${telegrambot.pre-validation.enabled}") boolean enabled,
+                                  @Value("${telegrambot.pre-validation.language-margin}") double languageMargin,
+                                  @Value("${telegrambot.pre-validation.min-trigrams}") int minTrigrams,
+                                  @Value("${telegrambot.pre-validation.accept-min-matches}") int acceptMinMatches,
+                                  @Value("${telegrambot.pre-validation.reject-other-languages}") boolean rejectOtherLanguages) {
+        this.assignmentTopicService = assignmentTopicService;
+        this.enabled = enabled;
+        this.languageMargin = languageMargin;
+        this.minTrigrams = minTrigrams;
+        this.acceptMinMatches = acceptMinMatches;
+        this.rejectOtherLanguages = rejectOtherLanguages;
+        for (PreValidationVerdict verdict : PreValidationVerdict.values()) {
+            verdicts.put(verdict, meterRegistry.counter("submission_pre_validation",
+                    "verdict", verdict.name().toLowerCase(Locale.ROOT)));
+        }
+        // Rejections left to OpenAI, to compare with its verdicts before enabling them
+        this.escalatedRejects = meterRegistry.counter("submission_pre_validation", "verdict", "reject_escalated");
+    }
+
+    public PreValidationVerdict check(String submission, CatalogTopic topic) {
+        if (!enabled) {
+            return PreValidationVerdict.UNDECIDED;
+        }
+        PreValidationVerdict verdict = decide(submission, topic);
+        if (verdict == PreValidationVerdict.REJECT && !rejectOtherLanguages) {
+            escalatedRejects.increment();
+            return PreValidationVerdict.UNDECIDED;
+        }
+        verdicts.get(verdict).increment();
+        return verdict;
+    }
+
+    private PreValidationVerdict decide(String submission, CatalogTopic topic) {
+        Model current = currentModel();
+        TopicStems topicStems = current.topics.get(topic.id());
+        if (topicStems == null || current.trigrams.isEmpty()) {
+            return PreValidationVerdict.UNDECIDED;
+        }
+
+        LanguageGuess guess = current.identifyLanguage(submission);
+        if (guess.trigrams() < minTrigrams || guess.margin() < languageMargin) {
+            LOGGER.debug("Language of submission unclear ({} trigrams, margin {})", guess.trigrams(), guess.margin());
+            return PreValidationVerdict.UNDECIDED;
+        }
+        if (guess.language() != Language.DE) {
+            LOGGER.debug("Submission is in {} (margin {})", guess.language(), guess.margin());
+            return PreValidationVerdict.REJECT;
+        }
+
+        Set<String> stems = stems(submission);
+        int matches = 0;
+        boolean mentionsTitle = false;
+        for (String stem : stems) {
+            if (topicStems.stems().contains(stem)) {
+                matches++;
+                mentionsTitle |= topicStems.titleStems().contains(stem);
+            }
+        }
+        LOGGER.debug("German submission shares {} stems with topic {}, title mentioned: {}", matches, topic.id(), mentionsTitle);
+        if (mentionsTitle && matches >= acceptMinMatches) {
+            return PreValidationVerdict.ACCEPT;
+        }
+        return PreValidationVerdict.UNDECIDED;
+    }
+
+    private Model currentModel() {
+        TopicCatalog catalog = assignmentTopicService.getCatalog();
+        Model current = model;
+        if (current == null || current.catalog != catalog) {
+            current = new Model(catalog);
+            model = current;
+            LOGGER.info("Built pre-validation model from {} topics, {} trigrams", catalog.size(), current.trigrams.size());
+        }
+        return current;
+    }
+
+    /**
+     * @return lower case letters of the text with everything in between collapsed into single spaces, padded with spaces
+     */
+    private static String normalize(String text) {
+        StringBuilder normalized = new StringBuilder(text.length() + 2).append(' ');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetter(c)) {
+                normalized.append(Character.toLowerCase(c));
+            } else if (normalized.charAt(normalized.length() - 1) != ' ') {
+                normalized.append(' ');
+            }
+        }
+        if (normalized.charAt(normalized.length() - 1) != ' ') {
+            normalized.append(' ');
+        }
+        return normalized.toString();
+    }
+
+    private static Set<String> stems(String text) {
+        Set<String> stems = new HashSet<>();
+        for (String word : normalize(text).trim().split(" ")) {
+            if (word.length() >= MIN_WORD_LENGTH && !STOP_WORDS.contains(word)) {
+                stems.add(word.substring(0, Math.min(STEM_LENGTH, word.length())));
+            }
+        }
+        return stems;
+    }
+
+    private record LanguageGuess(Language language, double margin, int trigrams) {
+    }
+
+    private record TopicStems(Set<String> titleStems, Set<String> stems) {
+    }
+
+    /**
+     * Language model and topic stems built from one catalog.
+     */
+    private static final class Model {
+        private static final Language[] LANGUAGES = Language.values();
+
+        private final TopicCatalog catalog;
+        // Log probability of every trigram seen in training, per language ordinal
+        private final Map<String, double[]> trigrams = new HashMap<>();
+        // Log probability of a trigram not seen in training, the same in every language
+        private double unseen;
+        private final Map<Long, TopicStems> topics = new HashMap<>();
+
+        private Model(TopicCatalog catalog) {
+            this.catalog = catalog;
+            buildLanguageModel();
+            buildTopicStems();
+        }
+
+        private void buildLanguageModel() {
+            Map<String, int[]> counts = new HashMap<>();
+            int[] totals = new int[LANGUAGES.length];
+            for (CatalogTopic topic : catalog.topics()) {
+                for (Language language : LANGUAGES) {
+                    String text = topic.description(language);
+                    if (language == Language.DE) {
+                        text = topic.topicDe() + " " + text + " " + topic.keywords(Language.DE);
+                    }
+                    String normalized = normalize(Objects.toString(text, ""));
+                    for (int i = 0; i + 3 <= normalized.length(); i++) {
+                        counts.computeIfAbsent(normalized.substring(i, i + 3), trigram -> new int[LANGUAGES.length])
+                                [language.ordinal()]++;
+                        totals[language.ordinal()]++;
+                    }
+                }
+            }
+
+            // The frequency in a language is mixed with the add-one smoothed frequency in all languages together,
+            // which has one more slot for all unseen trigrams. Smoothing each language on its own would give unseen
+            // trigrams a higher probability in languages with less training text, and so favour them
+            int vocabulary = counts.size() + 1;
+            long total = 0;
+            for (int languageTotal : totals) {
+                total += languageTotal;
+            }
+            double background = BACKGROUND_WEIGHT / (total + vocabulary);
+            unseen = Math.log(background);
+            counts.forEach((trigram, languageCounts) -> {
+                int count = 0;
+                for (int languageCount : languageCounts) {
+                    count += languageCount;
+                }
+                double[] logProbabilities = new double[LANGUAGES.length];
+                for (int l = 0; l < LANGUAGES.length; l++) {
+                    double frequency = totals[l] > 0 ? (double) languageCounts[l] / totals[l] : 0;
+                    logProbabilities[l] = Math.log((1 - BACKGROUND_WEIGHT) * frequency + (count + 1) * background);
+                }
+                trigrams.put(trigram, logProbabilities);
+            });
+        }
+
+        private void buildTopicStems() {
+            Map<Long, Set<String>> titleStems = new HashMap<>();
+            Map<Long, Set<String>> allStems = new HashMap<>();
+            Map<String, Integer> topicCounts = new HashMap<>();
+            for (CatalogTopic topic : catalog.topics()) {
+                Set<String> title = stems(Objects.toString(topic.topicDe(), ""));
+                Set<String> all = stems(topic.topicDe() + " " + topic.keywords(Language.DE) + " " + topic.descriptionDe());
+                titleStems.put(topic.id(), title);
+                allStems.put(topic.id(), all);
+                all.forEach(stem -> topicCounts.merge(stem, 1, Integer::sum));
+            }
+
+            double maxTopics = Math.max(1, catalog.size() * MAX_TOPIC_SHARE);
+            for (Map.Entry<Long, Set<String>> topic : allStems.entrySet()) {
+                Set<String> title = titleStems.get(topic.getKey());
+                Set<String> stems = new HashSet<>(title);
+                for (String stem : topic.getValue()) {
+                    if (topicCounts.get(stem) <= maxTopics) {
+                        stems.add(stem);
+                    }
+                }
+                topics.put(topic.getKey(), new TopicStems(Set.copyOf(title), Set.copyOf(stems)));
+            }
+        }
+
+        /**
+         * @return the most likely language, with its lead over the second one in log probability per trigram
+         */
+        private LanguageGuess identifyLanguage(String text) {
+            String normalized = normalize(text);
+            double[] scores = new double[LANGUAGES.length];
+            int count = 0;
+            for (int i = 0; i + 3 <= normalized.length(); i++) {
+                double[] logProbabilities = trigrams.get(normalized.substring(i, i + 3));
+                for (int l = 0; l < LANGUAGES.length; l++) {
+                    scores[l] += logProbabilities != null ? logProbabilities[l] : unseen;
+                }
+                count++;
+            }
+
+            int best = 0;
+            for (int l = 1; l < LANGUAGES.length; l++) {
+                if (scores[l] > scores[best]) {
+                    best = l;
+                }
+            }
+            double runnerUp = Double.NEGATIVE_INFINITY;
+            for (int l = 0; l < LANGUAGES.length; l++) {
+                if (l != best) {
+                    runnerUp = Math.max(runnerUp, scores[l]);
+                }
+            }
+            double margin = count > 0 ? (scores[best] - runnerUp) / count : 0;
+            return new LanguageGuess(LANGUAGES[best], margin, count);
+        }
+    }
+}
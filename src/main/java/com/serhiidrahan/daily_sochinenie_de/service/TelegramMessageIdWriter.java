@@ -0,0 +1,65 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the Telegram message ids of assignments behind: they are only needed to remove a keyboard later,
+ * so instead of a transaction per sent message they are collected and written periodically in one JDBC batch.
+ * Only the latest id of an assignment is written. Ids not flushed before a crash are lost.
+ */
+@Component
+public class TelegramMessageIdWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TelegramMessageIdWriter.class);
+    private static final String UPDATE_SQL =
+            "UPDATE assignment SET telegram_message_id = ?, last_modified_date = ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ConcurrentHashMap<Long, Integer> pendingMessageIds = new ConcurrentHashMap<>();
+
+    public TelegramMessageIdWriter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void write(long assignmentId, int telegramMessageId) {
+        pendingMessageIds.put(assignmentId, telegramMessageId);
+    }
+
+    @Scheduled(fixedDelayString = "${telegrambot.assignment.flush-interval-ms}")
+    @PreDestroy
+    public void flush() {
+        if (pendingMessageIds.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> batch = new ArrayList<>();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        for (Map.Entry<Long, Integer> pending : pendingMessageIds.entrySet()) {
+            // Only take the entry if it hasn't been replaced by a newer id in the meantime
+            if (pendingMessageIds.remove(pending.getKey(), pending.getValue())) {
+                batch.add(new Object[]{pending.getValue(), now, pending.getKey()});
+            }
+        }
+
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, batch);
+            LOGGER.debug("Wrote {} assignment message ids", batch.size());
+        } catch (RuntimeException e) {
+            LOGGER.error("Error writing {} assignment message ids, retrying with the next flush", batch.size(), e);
+            for (Object[] row : batch) {
+                pendingMessageIds.putIfAbsent((Long) row[2], (Integer) row[0]);
+            }
+        }
+    }
+}
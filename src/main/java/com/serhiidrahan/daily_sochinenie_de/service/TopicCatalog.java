@@ -0,0 +1,56 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import com.serhiidrahan.daily_sochinenie_de.dto.CatalogTopic;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of all assignment topics. Active topics are additionally kept as a bitset over topic ids.
+ */
+final class TopicCatalog {
+    static final TopicCatalog EMPTY = new TopicCatalog(Map.of(), new BitSet());
+
+    private final Map<Long, CatalogTopic> topicsById;
+    private final long[] activeWords;
+    private final int activeCount;
+
+    TopicCatalog(Map<Long, CatalogTopic> topicsById, BitSet activeTopicIds) {
+        this.topicsById = Map.copyOf(topicsById);
+        this.activeWords = activeTopicIds.toLongArray();
+        this.activeCount = activeTopicIds.cardinality();
+    }
+
+    CatalogTopic get(long topicId) {
+        return topicsById.get(topicId);
+    }
+
+    Collection<CatalogTopic> topics() {
+        return topicsById.values();
+    }
+
+    int size() {
+        return topicsById.size();
+    }
+
+    int activeCount() {
+        return activeCount;
+    }
+
+    boolean isActive(long topicId) {
+        int word = (int) (topicId >>> 6);
+        return topicId >= 0 && word < activeWords.length && (activeWords[word] & (1L << topicId)) != 0;
+    }
+
+    /**
+     * @return 64 active flags starting at topic id {@code index * 64}
+     */
+    long activeWord(int index) {
+        return index < activeWords.length ? activeWords[index] : 0;
+    }
+
+    int activeWordCount() {
+        return activeWords.length;
+    }
+}
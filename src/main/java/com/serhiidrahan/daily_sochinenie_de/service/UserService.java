@@ -2,45 +2,55 @@ package com.serhiidrahan.daily_sochinenie_de.service;
 
 import com.serhiidrahan.daily_sochinenie_de.entity.User;
 import com.serhiidrahan.daily_sochinenie_de.enums.Language;
+import com.serhiidrahan.daily_sochinenie_de.infrastructure.BoundedCache;
 import com.serhiidrahan.daily_sochinenie_de.repository.UserRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.Optional;
 
+/**
+ * Users are read on every update, so recently active ones are cached by Telegram id. The cache is
+ * write-through: every change is saved to the database and the cache at the same time.
+ */
 @Service
 public class UserService {
     private static final Logger LOGGER = LoggerFactory.getLogger(UserService.class);
 
     private final UserRepository userRepository;
+    private final BoundedCache<Long, User> usersByTelegramId;
 
-    public UserService(UserRepository userRepository) {
+    public UserService(UserRepository userRepository,
+                       @Value("${telegrambot.user-cache.max-entries}") int maxEntries,
+                       @Value("${telegrambot.user-cache.ttl-hours}") long ttlHours) {
         this.userRepository = userRepository;
+        this.usersByTelegramId = new BoundedCache<>(maxEntries, Duration.ofHours(ttlHours));
     }
 
     public boolean userExists(Long telegramUserId) {
-        Optional<User> existingUser = userRepository.findByTelegramId(telegramUserId);
-        return existingUser.isPresent();
+        return findUser(telegramUserId).isPresent();
     }
 
-    @Transactional
     public User getOrCreateUser(Long telegramUserId, String telegramUsername, Long chatId) {
-        Optional<User> existingUser = userRepository.findByTelegramId(telegramUserId);
+        Optional<User> existingUser = findUser(telegramUserId);
 
         if (existingUser.isPresent()) {
             User user = existingUser.get();
 
-            // Update chat ID if changed
-            if (!chatId.equals(user.getChatId())) {
+            // Update chat ID and username if changed
+            boolean chatIdChanged = !chatId.equals(user.getChatId());
+            boolean usernameChanged = telegramUsername != null && !telegramUsername.equals(user.getTelegramUsername());
+            if (chatIdChanged || usernameChanged) {
+                String newUsername = usernameChanged ? telegramUsername : user.getTelegramUsername();
+                LocalDateTime now = LocalDateTime.now();
+                userRepository.updateContactDetails(user.getId(), chatId, newUsername, now);
                 user.setChatId(chatId);
-            }
-
-            // Update username if changed
-            if (telegramUsername != null && !telegramUsername.equals(user.getTelegramUsername())) {
-                user.setTelegramUsername(telegramUsername);
-                userRepository.save(user);
+                user.setTelegramUsername(newUsername);
+                user.setLastModifiedDate(now);
             }
             return user;
         }
@@ -51,10 +61,31 @@ public class UserService {
         newUser.setTelegramUsername(telegramUsername);
         newUser.setChatId(chatId);
         newUser.setLanguage(Language.DE);
-        return userRepository.save(newUser);
+        User savedUser = userRepository.save(newUser);
+        usersByTelegramId.put(telegramUserId, savedUser);
+        return savedUser;
     }
 
     public void save(User user) {
-        userRepository.save(user);
+        User savedUser = userRepository.save(user);
+        usersByTelegramId.put(savedUser.getTelegramId(), savedUser);
+    }
+
+    /**
+     * Drops the cached user, e.g. when it might have been changed elsewhere.
+     */
+    public void evict(Long telegramUserId) {
+        usersByTelegramId.invalidate(telegramUserId);
+    }
+
+    public Optional<User> findUser(Long telegramUserId) {
+        User cachedUser = usersByTelegramId.get(telegramUserId);
+        if (cachedUser != null) {
+            return Optional.of(cachedUser);
+        }
+
+        Optional<User> user = userRepository.findByTelegramId(telegramUserId);
+        user.ifPresent(found -> usersByTelegramId.put(telegramUserId, found));
+        return user;
     }
-}
\ No newline at end of file
+}
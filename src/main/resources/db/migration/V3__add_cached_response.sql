@@ -0,0 +1,10 @@
+CREATE TABLE cached_response
+(
+    id                 BIGINT AUTO_INCREMENT,
+    creation_date      DATETIME    NULL,
+    last_modified_date DATETIME    NULL,
+    cache_key          VARCHAR(64) NOT NULL,
+    response           MEDIUMTEXT  NOT NULL,
+    CONSTRAINT pk_cached_response_id PRIMARY KEY (id),
+    CONSTRAINT uq_cached_response_cache_key UNIQUE (cache_key)
+);
@@ -0,0 +1,8 @@
+-- Active assignment lookups: the index covers every column they read (InnoDB adds the primary key)
+CREATE INDEX idx_assignment_user_id_state ON assignment (user_id, state, topic_id, telegram_message_id);
+
+-- Topic ids assigned to a user
+CREATE INDEX idx_assignment_user_id_topic_id ON assignment (user_id, topic_id);
+
+-- Loading all active assignments at startup
+CREATE INDEX idx_assignment_state ON assignment (state);
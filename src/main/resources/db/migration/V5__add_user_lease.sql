@@ -0,0 +1,24 @@
+-- Keep only the latest active assignment of every user before enforcing one at most
+UPDATE assignment a
+    JOIN (SELECT user_id, MAX(id) AS latest_id
+          FROM assignment
+          WHERE state IN ('ACTIVE', 'SUBMITTED')
+          GROUP BY user_id) latest ON a.user_id = latest.user_id
+SET a.state = 'CANCELLED'
+WHERE a.state IN ('ACTIVE', 'SUBMITTED')
+  AND a.id < latest.latest_id;
+
+-- At most one active assignment per user: the column is NULL for finished ones, and NULLs don't collide
+ALTER TABLE assignment
+    ADD COLUMN active_user_id BIGINT AS (CASE WHEN state IN ('ACTIVE', 'SUBMITTED') THEN user_id END) STORED;
+CREATE UNIQUE INDEX uq_assignment_active_user_id ON assignment (active_user_id);
+
+-- Which instance processes a user's updates; the version changes whenever the lease is taken
+CREATE TABLE user_lease
+(
+    telegram_user_id BIGINT      NOT NULL,
+    owner            VARCHAR(64) NOT NULL,
+    expires_at       DATETIME(3) NOT NULL,
+    version          BIGINT      NOT NULL,
+    CONSTRAINT pk_user_lease_telegram_user_id PRIMARY KEY (telegram_user_id)
+);
@@ -0,0 +1,23 @@
+-- Submissions waiting for or being evaluated. A job is deleted once it's done; failed ones are kept without the submission
+CREATE TABLE submission_job
+(
+    id                 BIGINT AUTO_INCREMENT,
+    creation_date      DATETIME     NULL,
+    last_modified_date DATETIME     NULL,
+    telegram_user_id   BIGINT       NOT NULL,
+    chat_id            BIGINT       NOT NULL,
+    assignment_id      BIGINT       NOT NULL,
+    kind               VARCHAR(20)  NOT NULL,
+    payload            TEXT         NOT NULL,
+    photo_unique_id    VARCHAR(255) NULL,
+    state              VARCHAR(20)  NOT NULL,
+    attempts           INTEGER      NOT NULL DEFAULT 0,
+    owner              VARCHAR(64)  NULL,
+    lease_expires_at   DATETIME(3)  NULL,
+    last_error         VARCHAR(1000) NULL,
+    CONSTRAINT pk_submission_job_id PRIMARY KEY (id),
+    CONSTRAINT fk_submission_job_assignment_id FOREIGN KEY (assignment_id) REFERENCES assignment (id)
+);
+
+-- Claiming jobs in order and counting the backlog
+CREATE INDEX idx_submission_job_state_id ON submission_job (state, id);
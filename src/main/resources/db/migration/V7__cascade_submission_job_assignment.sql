@@ -0,0 +1,8 @@
+-- Jobs go with their assignment, so deleting assignments isn't blocked by jobs, failed ones included
+ALTER TABLE submission_job
+    DROP FOREIGN KEY fk_submission_job_assignment_id;
+ALTER TABLE submission_job
+    ADD CONSTRAINT fk_submission_job_assignment_id FOREIGN KEY (assignment_id) REFERENCES assignment (id) ON DELETE CASCADE;
+
+-- Purging failed jobs by age
+CREATE INDEX idx_submission_job_state_last_modified_date ON submission_job (state, last_modified_date);
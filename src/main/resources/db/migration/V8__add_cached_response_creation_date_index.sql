@@ -0,0 +1,2 @@
+-- Purging expired cached responses by age
+CREATE INDEX idx_cached_response_creation_date ON cached_response (creation_date);
@@ -0,0 +1,19 @@
+package com.serhiidrahan.daily_sochinenie_de;
+
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Base of tests against a real MySQL, started once in a container and migrated by Flyway.
+ * The schema relies on MySQL (generated columns, SKIP LOCKED), so an embedded database won't do.
+ * Skipped where Docker isn't available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+public abstract class MySqlTest {
+
+    @Container
+    @ServiceConnection
+    protected static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0");
+}
@@ -0,0 +1,212 @@
+package com.serhiidrahan.daily_sochinenie_de;
+
+import com.serhiidrahan.daily_sochinenie_de.dto.ActiveAssignment;
+import com.serhiidrahan.daily_sochinenie_de.dto.CatalogTopic;
+import com.serhiidrahan.daily_sochinenie_de.dto.SubmissionJob;
+import com.serhiidrahan.daily_sochinenie_de.entity.User;
+import com.serhiidrahan.daily_sochinenie_de.enums.AssignmentState;
+import com.serhiidrahan.daily_sochinenie_de.enums.Language;
+import com.serhiidrahan.daily_sochinenie_de.enums.PreValidationVerdict;
+import com.serhiidrahan.daily_sochinenie_de.enums.SubmissionKind;
+import com.serhiidrahan.daily_sochinenie_de.infrastructure.TelegramDispatcher;
+import com.serhiidrahan.daily_sochinenie_de.infrastructure.UserLeases;
+import com.serhiidrahan.daily_sochinenie_de.infrastructure.UserMailboxes;
+import com.serhiidrahan.daily_sochinenie_de.service.AssignmentService;
+import com.serhiidrahan.daily_sochinenie_de.service.ChatGPTService;
+import com.serhiidrahan.daily_sochinenie_de.service.LocalizedMessagesService;
+import com.serhiidrahan.daily_sochinenie_de.service.PhotoPreparationService;
+import com.serhiidrahan.daily_sochinenie_de.service.SubmissionJobQueue;
+import com.serhiidrahan.daily_sochinenie_de.service.SubmissionPreValidator;
+import com.serhiidrahan.daily_sochinenie_de.service.UserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.telegram.telegrambots.meta.api.methods.GetFile;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.File;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.chat.Chat;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.RETURNS_SMART_NULLS;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SochinenieBotTest {
+    private static final long USER_ID = 42;
+    private static final String ESSAY = "Mein Hobby ist Malen. Ich male jeden Abend mit Aquarellfarben.";
+    private static final ActiveAssignment ASSIGNMENT = new ActiveAssignment(10, AssignmentState.ACTIVE, 1, 5);
+    private static final CatalogTopic TOPIC = new CatalogTopic(1, "Mein Hobby", "Beschreibung", Map.of(), Map.of(), Map.of());
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final TelegramClient telegramClient = mock(TelegramClient.class);
+    private final PhotoPreparationService photoPreparationService = mock(PhotoPreparationService.class);
+    private final TelegramDispatcher telegramDispatcher = mock(TelegramDispatcher.class);
+    private final UserService userService = mock(UserService.class);
+    private final AssignmentService assignmentService = mock(AssignmentService.class);
+    private final ChatGPTService chatGPTService = mock(ChatGPTService.class);
+    private final LocalizedMessagesService localizedMessagesService = mock(LocalizedMessagesService.class, RETURNS_SMART_NULLS);
+    private final UserLeases userLeases = mock(UserLeases.class);
+    private final SubmissionJobQueue submissionJobQueue = mock(SubmissionJobQueue.class);
+    private final SubmissionPreValidator submissionPreValidator = mock(SubmissionPreValidator.class);
+    private final User user = new User();
+    private SochinenieBot bot;
+
+    @BeforeEach
+    void createBot() {
+        user.setTelegramId(USER_ID);
+        user.setChatId(USER_ID);
+        user.setLanguage(Language.EN);
+        when(userService.userExists(USER_ID)).thenReturn(true);
+        when(userService.getOrCreateUser(eq(USER_ID), any(), eq(USER_ID))).thenReturn(user);
+        when(userService.findUser(USER_ID)).thenReturn(Optional.of(user));
+        when(assignmentService.getCurrentActiveAssignment(user)).thenReturn(ASSIGNMENT);
+        when(assignmentService.getTopic(any())).thenReturn(TOPIC);
+        when(userLeases.acquire(USER_ID)).thenReturn(CompletableFuture.completedFuture(false));
+        when(submissionPreValidator.check(any(), any())).thenReturn(PreValidationVerdict.UNDECIDED);
+        when(telegramDispatcher.send(anyLong(), any())).thenAnswer(invocation -> {
+            Message sent = new Message();
+            sent.setMessageId(100);
+            return CompletableFuture.completedFuture(sent);
+        });
+
+        bot = new SochinenieBot(telegramClient, telegramDispatcher, userService, assignmentService,
+                chatGPTService, localizedMessagesService, photoPreparationService, executor,
+                new UserMailboxes(executor, 10), userLeases, submissionJobQueue, submissionPreValidator,
+                false, 1000, false);
+    }
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void laterUpdatesWaitForEvaluationOfSubmission() {
+        SubmissionJob job = new SubmissionJob(1, USER_ID, USER_ID, ASSIGNMENT.assignmentId(), SubmissionKind.TEXT, ESSAY, null, 1);
+        when(submissionJobQueue.enqueue(USER_ID, USER_ID, ASSIGNMENT.assignmentId(), SubmissionKind.TEXT, ESSAY, null))
+                .thenReturn(job);
+        CompletableFuture<Boolean> validation = new CompletableFuture<>();
+        when(chatGPTService.validateSubmission(eq(ESSAY), eq("Mein Hobby"), any())).thenReturn(validation);
+        when(chatGPTService.getFeedback(eq(ESSAY), eq(Language.EN), any())).thenReturn(CompletableFuture.completedFuture("Gut"));
+
+        bot.consume(List.of(textMessage(ESSAY), textMessage("/new_assignment")));
+
+        verify(chatGPTService, timeout(5000)).validateSubmission(eq(ESSAY), eq("Mein Hobby"), any());
+        verify(assignmentService, after(300).never()).replaceAssignment(any(), any());
+
+        validation.complete(true);
+
+        verify(assignmentService, timeout(5000)).replaceAssignment(user, ASSIGNMENT);
+        InOrder inOrder = inOrder(assignmentService, submissionJobQueue);
+        inOrder.verify(assignmentService).changeAssignmentState(user, ASSIGNMENT, AssignmentState.SUBMITTED);
+        inOrder.verify(submissionJobQueue).finish(job, null);
+        inOrder.verify(assignmentService).replaceAssignment(user, ASSIGNMENT);
+    }
+
+    @Test
+    void tellsUserAboutDiscardedSubmission() throws Exception {
+        when(localizedMessagesService.submissionDiscarded(Language.EN)).thenReturn("Discarded");
+        SubmissionJob staleJob = new SubmissionJob(1, USER_ID, USER_ID, 9, SubmissionKind.TEXT, ESSAY, null, 2);
+
+        bot.runSubmissionJob(staleJob).get(5, TimeUnit.SECONDS);
+
+        verify(telegramDispatcher).send(eq(USER_ID), argThat(method -> hasText(method, "Discarded")));
+        verify(chatGPTService, never()).validateSubmission(anyString(), anyString(), any());
+    }
+
+    @Test
+    void evaluatesNothingIfBacklogIsFull() {
+        when(localizedMessagesService.submissionQueueFull(Language.EN)).thenReturn("Full");
+        when(submissionJobQueue.enqueue(anyLong(), anyLong(), anyLong(), any(), any(), isNull())).thenReturn(null);
+
+        bot.consume(textMessage(ESSAY));
+
+        verify(telegramDispatcher, timeout(5000)).send(eq(USER_ID), argThat(method -> hasText(method, "Full")));
+        verify(chatGPTService, never()).validateSubmission(anyString(), anyString(), any());
+        verify(submissionJobQueue, never()).finish(any(), any());
+    }
+
+    @Test
+    void putsFailedEvaluationBackWithoutTellingUser() {
+        when(localizedMessagesService.errorGettingFeedback(Language.EN)).thenReturn("Error");
+        SubmissionJob job = new SubmissionJob(1, USER_ID, USER_ID, ASSIGNMENT.assignmentId(), SubmissionKind.TEXT, ESSAY, null, 1);
+        when(submissionJobQueue.enqueue(USER_ID, USER_ID, ASSIGNMENT.assignmentId(), SubmissionKind.TEXT, ESSAY, null))
+                .thenReturn(job);
+        when(chatGPTService.validateSubmission(eq(ESSAY), eq("Mein Hobby"), any()))
+                .thenReturn(CompletableFuture.failedFuture(new IOException("OpenAI is down")));
+
+        bot.consume(textMessage(ESSAY));
+
+        verify(submissionJobQueue, timeout(5000)).finish(eq(job), argThat(error -> error != null));
+        verify(telegramDispatcher, never()).send(eq(USER_ID), argThat(method -> hasText(method, "Error")));
+    }
+
+    @Test
+    void tellsUserOnceAttemptsHaveRunOut() {
+        when(localizedMessagesService.errorProcessingImage(Language.EN)).thenReturn("Image error");
+
+        bot.failSubmissionJob(new SubmissionJob(1, USER_ID, USER_ID, ASSIGNMENT.assignmentId(), SubmissionKind.PHOTO,
+                "file-id", "unique-id", 4));
+
+        verify(telegramDispatcher).send(eq(USER_ID), argThat(method -> hasText(method, "Image error")));
+    }
+
+    @Test
+    void deletesDownloadedPhotoIfItCantBePrepared() throws Exception {
+        when(telegramClient.execute(any(GetFile.class))).thenReturn(new File("file-id", "unique-id", 3L, "photos/file.jpg"));
+        when(telegramClient.downloadFileAsStream("photos/file.jpg")).thenReturn(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        AtomicReference<java.io.File> downloaded = new AtomicReference<>();
+        doAnswer(invocation -> {
+            downloaded.set(invocation.getArgument(0));
+            throw new IllegalStateException("Unreadable image");
+        }).when(photoPreparationService).prepare(any());
+
+        CompletableFuture<Void> processing = bot.runSubmissionJob(new SubmissionJob(1, USER_ID, USER_ID,
+                ASSIGNMENT.assignmentId(), SubmissionKind.PHOTO, "file-id", "unique-id", 1));
+
+        assertThat(processing).failsWithin(5, TimeUnit.SECONDS);
+        assertThat(downloaded.get()).isNotNull().doesNotExist();
+    }
+
+    private static Update textMessage(String text) {
+        Message message = new Message();
+        message.setMessageId(1);
+        message.setFrom(new org.telegram.telegrambots.meta.api.objects.User(USER_ID, "Anna", false));
+        message.setChat(new Chat(USER_ID, "private"));
+        message.setText(text);
+        Update update = new Update();
+        update.setMessage(message);
+        return update;
+    }
+
+    private static boolean hasText(Object method, String text) {
+        return method instanceof SendMessage message && text.equals(message.getText());
+    }
+}
@@ -0,0 +1,142 @@
+package com.serhiidrahan.daily_sochinenie_de;
+
+import com.serhiidrahan.daily_sochinenie_de.infrastructure.TelegramDispatcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs on a single thread which also completes the responses, like a bot executor with one thread left.
+ */
+class StreamingFeedbackMessageTest {
+    private static final long CHAT_ID = 7;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final TelegramDispatcher telegramDispatcher = mock(TelegramDispatcher.class);
+    private final List<BotApiMethod<?>> sent = new CopyOnWriteArrayList<>();
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private final InlineKeyboardMarkup keyboard = new InlineKeyboardMarkup(List.of());
+    private volatile boolean rejectMarkdown = false;
+
+    @BeforeEach
+    void answerOnExecutor() {
+        when(telegramDispatcher.send(anyLong(), any())).thenAnswer(invocation -> {
+            BotApiMethod<?> method = invocation.getArgument(1);
+            sent.add(method);
+            CompletableFuture<Message> response = new CompletableFuture<>();
+            executor.execute(() -> {
+                if (rejectMarkdown && method instanceof EditMessageText edit && "Markdown".equals(edit.getParseMode())) {
+                    response.completeExceptionally(new TelegramApiRequestException("Bad Request: can't parse entities"));
+                    return;
+                }
+                Message message = new Message();
+                message.setMessageId(method instanceof EditMessageText edit ? edit.getMessageId() : messageIds.incrementAndGet());
+                response.complete(message);
+            });
+            return response;
+        });
+    }
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void editsStreamedMessageIntoFinalOne() throws Exception {
+        StreamingFeedbackMessage message = new StreamingFeedbackMessage(telegramDispatcher, executor, CHAT_ID, 4096, 60_000);
+
+        message.update("Gut");
+        awaitIdle();
+        Integer lastMessageId = message.finish("Gut *gemacht*", keyboard).get(5, TimeUnit.SECONDS);
+
+        assertThat(lastMessageId).isEqualTo(1);
+        assertThat(sent).hasSize(2);
+        assertThat(sent.get(0)).isInstanceOfSatisfying(SendMessage.class, first -> {
+            assertThat(first.getText()).isEqualTo("Gut");
+            assertThat(first.getParseMode()).isNull();
+        });
+        assertThat(sent.get(1)).isInstanceOfSatisfying(EditMessageText.class, last -> {
+            assertThat(last.getMessageId()).isEqualTo(1);
+            assertThat(last.getText()).isEqualTo("Gut *gemacht*");
+            assertThat(last.getParseMode()).isEqualTo("Markdown");
+            assertThat(last.getReplyMarkup()).isSameAs(keyboard);
+        });
+    }
+
+    @Test
+    void rollsLongTextOverIntoNewMessages() throws Exception {
+        StreamingFeedbackMessage message = new StreamingFeedbackMessage(telegramDispatcher, executor, CHAT_ID, 20, 60_000);
+
+        Integer lastMessageId = message.finish("Erste Zeile ist da\nZweite Zeile ist da\nDritte", keyboard)
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat(lastMessageId).isEqualTo(3);
+        assertThat(sent).extracting(method -> ((SendMessage) method).getText())
+                .containsExactly("Erste Zeile ist da", "Zweite Zeile ist da", "Dritte");
+        assertThat(((SendMessage) sent.get(2)).getReplyMarkup()).isSameAs(keyboard);
+    }
+
+    @Test
+    void fallsBackToPlainTextIfMarkdownIsRejected() throws Exception {
+        StreamingFeedbackMessage message = new StreamingFeedbackMessage(telegramDispatcher, executor, CHAT_ID, 4096, 60_000);
+        rejectMarkdown = true;
+
+        message.update("Gut");
+        awaitIdle();
+        Integer lastMessageId = message.finish("Gut *gemacht", keyboard).get(5, TimeUnit.SECONDS);
+
+        assertThat(lastMessageId).isEqualTo(1);
+        assertThat(sent).hasSize(3);
+        assertThat(sent.get(2)).isInstanceOfSatisfying(EditMessageText.class, plain -> {
+            assertThat(plain.getText()).isEqualTo("Gut *gemacht");
+            assertThat(plain.getParseMode()).isNull();
+        });
+    }
+
+    @Test
+    void ignoresUpdatesAfterFinish() throws Exception {
+        StreamingFeedbackMessage message = new StreamingFeedbackMessage(telegramDispatcher, executor, CHAT_ID, 4096, 0);
+
+        message.finish("Fertig", keyboard).get(5, TimeUnit.SECONDS);
+        message.update("Fertig und mehr");
+        awaitIdle();
+
+        assertThat(sent).hasSize(1);
+    }
+
+    @Test
+    void sendsNothingForEmptyFeedback() throws Exception {
+        StreamingFeedbackMessage message = new StreamingFeedbackMessage(telegramDispatcher, executor, CHAT_ID, 4096, 60_000);
+
+        assertThat(message.finish("  ", keyboard).get(5, TimeUnit.SECONDS)).isNull();
+        assertThat(sent).isEmpty();
+    }
+
+    /**
+     * Waits for everything queued on the executor, including the responses queued meanwhile.
+     */
+    private void awaitIdle() throws Exception {
+        executor.submit(() -> null).get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,122 @@
+package com.serhiidrahan.daily_sochinenie_de;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
+import org.telegram.telegrambots.meta.TelegramUrl;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Runs against a local stand-in for the Telegram Bot API.
+ */
+class TelegramWebhookControllerTest {
+    private static final String WEBHOOK_PATH = "/telegram/webhook";
+    private static final String WEBHOOK_URL = "https://bot.example.org" + WEBHOOK_PATH;
+    private static final String SECRET_TOKEN = "s3cr3t-token";
+    private static final String UPDATE = """
+            {"update_id":1001,"message":{"message_id":5,"date":1700000000,"text":"Hallo",
+            "from":{"id":42,"is_bot":false,"first_name":"Anna"},"chat":{"id":42,"type":"private"}}}""";
+
+    private final SochinenieBot sochinenieBot = mock(SochinenieBot.class);
+    private final List<String> apiRequests = new CopyOnWriteArrayList<>();
+    private HttpServer telegramApi;
+    private TelegramWebhookController controller;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void startTelegramApi() throws IOException {
+        telegramApi = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        telegramApi.createContext("/", exchange -> {
+            apiRequests.add(exchange.getRequestURI().getPath() + " "
+                    + new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            byte[] response = "{\"ok\":true,\"result\":true}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        telegramApi.start();
+
+        TelegramClient telegramClient = new OkHttpTelegramClient("123:token",
+                new TelegramUrl("http", "localhost", telegramApi.getAddress().getPort(), false));
+        controller = new TelegramWebhookController(sochinenieBot, telegramClient, WEBHOOK_URL, SECRET_TOKEN);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .addPlaceholderValue("telegrambot.webhook.path", WEBHOOK_PATH)
+                .build();
+    }
+
+    @AfterEach
+    void stopTelegramApi() {
+        telegramApi.stop(0);
+    }
+
+    @Test
+    void registersWebhookWithSecretToken() throws Exception {
+        controller.registerWebhook();
+
+        assertThat(apiRequests).singleElement().satisfies(request -> {
+            assertThat(request).startsWith("/bot123:token/setWebhook");
+            assertThat(request).contains(WEBHOOK_URL, SECRET_TOKEN);
+        });
+    }
+
+    @Test
+    void passesUpdateWithValidTokenToBot() throws Exception {
+        mockMvc.perform(post(WEBHOOK_PATH)
+                        .header("X-Telegram-Bot-Api-Secret-Token", SECRET_TOKEN)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(UPDATE))
+                .andExpect(status().isOk());
+
+        verify(sochinenieBot).consume(argThat((Update update) -> update.getUpdateId() == 1001
+                && "Hallo".equals(update.getMessage().getText())
+                && update.getMessage().getFrom().getId() == 42));
+    }
+
+    @Test
+    void rejectsUpdateWithoutValidToken() throws Exception {
+        mockMvc.perform(post(WEBHOOK_PATH)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(UPDATE))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(post(WEBHOOK_PATH)
+                        .header("X-Telegram-Bot-Api-Secret-Token", "s3cr3t-tokem")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(UPDATE))
+                .andExpect(status().isUnauthorized());
+
+        verify(sochinenieBot, never()).consume(any(Update.class));
+    }
+
+    @Test
+    void refusesToStartWithoutSecretToken() {
+        TelegramClient telegramClient = mock(TelegramClient.class);
+
+        assertThatThrownBy(() -> new TelegramWebhookController(sochinenieBot, telegramClient, WEBHOOK_URL, " "))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,104 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import com.serhiidrahan.daily_sochinenie_de.dto.ActiveAssignment;
+import com.serhiidrahan.daily_sochinenie_de.enums.AssignmentState;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ActiveAssignmentTableTest {
+
+    @Test
+    void storesAssignmentsByUser() {
+        ActiveAssignmentTable table = new ActiveAssignmentTable(4);
+        ActiveAssignment active = new ActiveAssignment(10, AssignmentState.ACTIVE, 3, 55);
+        ActiveAssignment submitted = new ActiveAssignment(11, AssignmentState.SUBMITTED, 4, null);
+
+        table.put(42, active);
+        table.put(43, submitted);
+
+        assertThat(table.get(42)).isEqualTo(active);
+        assertThat(table.get(43)).isEqualTo(submitted);
+        assertThat(table.get(44)).isNull();
+        assertThat(table.size()).isEqualTo(2);
+    }
+
+    @Test
+    void replacesAssignmentOfUser() {
+        ActiveAssignmentTable table = new ActiveAssignmentTable(4);
+        table.put(42, new ActiveAssignment(10, AssignmentState.ACTIVE, 3, null));
+
+        ActiveAssignment next = new ActiveAssignment(12, AssignmentState.ACTIVE, 5, 77);
+        table.put(42, next);
+
+        assertThat(table.get(42)).isEqualTo(next);
+        assertThat(table.size()).isEqualTo(1);
+    }
+
+    @Test
+    void growsBeyondExpectedSize() {
+        ActiveAssignmentTable table = new ActiveAssignmentTable(1);
+
+        for (long userId = 1; userId <= 10_000; userId++) {
+            table.put(userId, assignment(userId));
+        }
+
+        assertThat(table.size()).isEqualTo(10_000);
+        for (long userId = 1; userId <= 10_000; userId++) {
+            assertThat(table.get(userId)).isEqualTo(assignment(userId));
+        }
+    }
+
+    @Test
+    void behavesLikeMapUnderRandomPutsAndRemoves() {
+        // Few distinct ids in a small table, so that probe sequences collide and wrap around
+        ActiveAssignmentTable table = new ActiveAssignmentTable(8);
+        Map<Long, ActiveAssignment> expected = new HashMap<>();
+        Random random = new Random(7);
+
+        for (int i = 0; i < 50_000; i++) {
+            long userId = 1 + random.nextInt(24);
+            if (random.nextInt(3) == 0) {
+                table.remove(userId);
+                expected.remove(userId);
+            } else {
+                ActiveAssignment assignment = new ActiveAssignment(i, AssignmentState.ACTIVE, userId, i % 2 == 0 ? i + 1 : null);
+                table.put(userId, assignment);
+                expected.put(userId, assignment);
+            }
+
+            assertThat(table.size()).isEqualTo(expected.size());
+            for (long id = 1; id <= 24; id++) {
+                assertThat(table.get(id)).isEqualTo(expected.get(id));
+            }
+        }
+    }
+
+    @Test
+    void clearsAllAssignments() {
+        ActiveAssignmentTable table = new ActiveAssignmentTable(4);
+        table.put(42, assignment(42));
+
+        table.clear();
+        table.remove(42);
+
+        assertThat(table.get(42)).isNull();
+        assertThat(table.size()).isZero();
+    }
+
+    @Test
+    void rejectsFreeSlotMarkerAsUserId() {
+        ActiveAssignmentTable table = new ActiveAssignmentTable(4);
+
+        assertThatThrownBy(() -> table.put(0, assignment(1))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static ActiveAssignment assignment(long userId) {
+        return new ActiveAssignment(userId * 10, AssignmentState.values()[(int) (userId % 2)], userId, (int) userId);
+    }
+}
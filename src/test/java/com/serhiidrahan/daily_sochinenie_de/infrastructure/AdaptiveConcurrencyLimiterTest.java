@@ -0,0 +1,135 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimiterTest {
+    private static final Duration THRESHOLD = Duration.ofMinutes(1);
+    private static final Predicate<Throwable> TIMEOUT_IS_OVERLOAD = error -> error instanceof TimeoutException;
+
+    private final List<Integer> queuePositions = new ArrayList<>();
+
+    @Test
+    void queuesCallsOverLimitAndStartsThemInOrder() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 10, 0.5, THRESHOLD);
+        List<CompletableFuture<String>> responses = new ArrayList<>();
+        List<Integer> started = new ArrayList<>();
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int call = i;
+            results.add(limiter.execute(() -> {
+                started.add(call);
+                CompletableFuture<String> response = new CompletableFuture<>();
+                responses.add(response);
+                return response;
+            }, TIMEOUT_IS_OVERLOAD, queuePositions::add));
+        }
+
+        assertThat(started).containsExactly(0, 1);
+        assertThat(queuePositions).containsExactly(1, 2);
+        assertThat(limiter.hasCapacity()).isFalse();
+        assertThat(limiter.getWaiting()).isEqualTo(2);
+
+        responses.get(1).complete("b");
+
+        assertThat(results.get(1)).isCompletedWithValue("b");
+        assertThat(started).containsExactly(0, 1, 2);
+        assertThat(limiter.getInFlight()).isEqualTo(2);
+        assertThat(limiter.getWaiting()).isEqualTo(1);
+    }
+
+    @Test
+    void growsLimitWhileCallsSucceedAtLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 3, 0.5, THRESHOLD);
+
+        for (int i = 0; i < 20; i++) {
+            CompletableFuture<String> first = new CompletableFuture<>();
+            CompletableFuture<String> second = new CompletableFuture<>();
+            CompletableFuture<String> third = new CompletableFuture<>();
+            limiter.execute(() -> first, TIMEOUT_IS_OVERLOAD, queuePositions::add);
+            limiter.execute(() -> second, TIMEOUT_IS_OVERLOAD, queuePositions::add);
+            limiter.execute(() -> third, TIMEOUT_IS_OVERLOAD, queuePositions::add);
+            first.complete("a");
+            second.complete("b");
+            third.complete("c");
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(3.0);
+    }
+
+    @Test
+    void leavesLimitAloneWhileBelowIt() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 10, 0.5, THRESHOLD);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.execute(() -> CompletableFuture.completedFuture("a"), TIMEOUT_IS_OVERLOAD, queuePositions::add);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(2.0);
+    }
+
+    @Test
+    void backsOffOnOverloadOncePerCongestion() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 8, 1, 10, 0.5, THRESHOLD);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        limiter.execute(() -> first, TIMEOUT_IS_OVERLOAD, queuePositions::add);
+        limiter.execute(() -> second, TIMEOUT_IS_OVERLOAD, queuePositions::add);
+
+        first.completeExceptionally(new TimeoutException());
+        assertThat(limiter.getLimit()).isEqualTo(4.0);
+        // Started before the decrease, so it doesn't lower the limit again
+        second.completeExceptionally(new TimeoutException());
+        assertThat(limiter.getLimit()).isEqualTo(4.0);
+
+        limiter.execute(() -> CompletableFuture.failedFuture(new TimeoutException()), TIMEOUT_IS_OVERLOAD, queuePositions::add);
+        assertThat(limiter.getLimit()).isEqualTo(2.0);
+    }
+
+    @Test
+    void backsOffOnSlowCalls() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 4, 1, 10, 0.5, Duration.ZERO);
+
+        limiter.execute(() -> CompletableFuture.supplyAsync(() -> "slow",
+                CompletableFuture.delayedExecutor(10, TimeUnit.MILLISECONDS)),
+                TIMEOUT_IS_OVERLOAD, queuePositions::add).join();
+
+        assertThat(limiter.getLimit()).isEqualTo(2.0);
+    }
+
+    @Test
+    void keepsLimitOnOtherErrorsAndNeverGoesBelowMinimum() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 2, 10, 0.5, THRESHOLD);
+
+        limiter.execute(() -> CompletableFuture.failedFuture(new IllegalArgumentException()), TIMEOUT_IS_OVERLOAD,
+                queuePositions::add);
+        assertThat(limiter.getLimit()).isEqualTo(2.0);
+
+        limiter.execute(() -> CompletableFuture.failedFuture(new TimeoutException()), TIMEOUT_IS_OVERLOAD,
+                queuePositions::add);
+        assertThat(limiter.getLimit()).isEqualTo(2.0);
+    }
+
+    @Test
+    void releasesSlotIfCallThrows() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 10, 0.5, THRESHOLD);
+
+        CompletableFuture<String> result = limiter.execute(() -> {
+            throw new IllegalStateException("broken");
+        }, TIMEOUT_IS_OVERLOAD, queuePositions::add);
+
+        assertThat(result).isCompletedExceptionally();
+        assertThat(limiter.getInFlight()).isZero();
+        assertThat(limiter.hasCapacity()).isTrue();
+    }
+}
@@ -0,0 +1,63 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BoundedCacheTest {
+
+    @Test
+    void returnsCachedValues() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, Duration.ofHours(1));
+
+        cache.put("a", "1");
+        cache.put("a", "2");
+
+        assertThat(cache.get("a")).isEqualTo("2");
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedWhenFull() {
+        BoundedCache<String, String> cache = new BoundedCache<>(2, Duration.ofHours(1));
+        cache.put("a", "1");
+        cache.put("b", "2");
+
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("a")).isEqualTo("1");
+        assertThat(cache.get("c")).isEqualTo("3");
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void dropsExpiredEntries() throws InterruptedException {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, Duration.ofMillis(20));
+        cache.put("a", "1");
+
+        Thread.sleep(50);
+
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void invalidatesEntries() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, Duration.ofHours(1));
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+
+        cache.invalidate("a");
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.get("b")).isEqualTo("2");
+
+        cache.invalidateAll();
+        assertThat(cache.size()).isZero();
+    }
+}
@@ -0,0 +1,146 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ResilientCallerTest {
+    private static final Predicate<Throwable> IO_IS_RETRYABLE = error -> error instanceof IOException;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void retriesUntilCallSucceeds() throws Exception {
+        ResilientCaller caller = caller(3, 1.0);
+
+        String result = caller.<String>call(() -> attempts.incrementAndGet() < 3
+                        ? CompletableFuture.failedFuture(new IOException("reset"))
+                        : CompletableFuture.completedFuture("ok"),
+                IO_IS_RETRYABLE, () -> false).get(5, TimeUnit.SECONDS);
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(attempts).hasValue(3);
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() {
+        ResilientCaller caller = caller(3, 1.0);
+
+        CompletableFuture<String> result = caller.call(this::failingAttempt, IO_IS_RETRYABLE, () -> false);
+
+        assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IOException.class);
+        assertThat(attempts).hasValue(3);
+    }
+
+    @Test
+    void doesNotRetryErrorsThatWouldRepeat() {
+        ResilientCaller caller = caller(3, 1.0);
+
+        CompletableFuture<String> result = caller.call(() -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.failedFuture(new IllegalArgumentException("bad request"));
+        }, IO_IS_RETRYABLE, () -> false);
+
+        assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalArgumentException.class);
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    void retriesNoMoreThanBudgetAllows() {
+        // Calls earn no retries, only the initial balance of 10 can be spent
+        ResilientCaller caller = caller(2, 0);
+
+        for (int i = 0; i < 15; i++) {
+            CompletableFuture<String> result = caller.call(this::failingAttempt, IO_IS_RETRYABLE, () -> false);
+            assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IOException.class);
+        }
+
+        assertThat(attempts).hasValue(15 + 10);
+    }
+
+    @Test
+    void hedgesCallSlowerThanUsual() throws Exception {
+        ResilientCaller caller = caller(1, 1.0);
+        recordFastCalls(caller);
+        List<CompletableFuture<String>> launched = new CopyOnWriteArrayList<>();
+
+        String result = caller.<String>call(() -> {
+            CompletableFuture<String> attempt = launched.isEmpty()
+                    ? new CompletableFuture<>()
+                    : CompletableFuture.completedFuture("hedged");
+            launched.add(attempt);
+            return attempt;
+        }, IO_IS_RETRYABLE, () -> true).get(5, TimeUnit.SECONDS);
+
+        assertThat(result).isEqualTo("hedged");
+        assertThat(launched).hasSize(2);
+        assertThat(launched.get(0)).isCancelled();
+    }
+
+    @Test
+    void doesNotHedgeWithoutCapacity() throws Exception {
+        ResilientCaller caller = caller(1, 1.0);
+        recordFastCalls(caller);
+        CompletableFuture<String> slow = new CompletableFuture<>();
+
+        CompletableFuture<String> result = caller.call(() -> {
+            attempts.incrementAndGet();
+            return slow;
+        }, IO_IS_RETRYABLE, () -> false);
+        Thread.sleep(200);
+
+        assertThat(attempts).hasValue(1);
+        slow.complete("slow");
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("slow");
+    }
+
+    @Test
+    void doesNotHedgeBeforeLatenciesAreKnown() throws Exception {
+        ResilientCaller caller = caller(1, 1.0);
+
+        caller.call(() -> {
+            attempts.incrementAndGet();
+            return new CompletableFuture<String>();
+        }, IO_IS_RETRYABLE, () -> true);
+        Thread.sleep(200);
+
+        assertThat(attempts).hasValue(1);
+    }
+
+    private CompletableFuture<String> failingAttempt() {
+        attempts.incrementAndGet();
+        return CompletableFuture.failedFuture(new IOException("reset"));
+    }
+
+    private static void recordFastCalls(ResilientCaller caller) throws Exception {
+        for (int i = 0; i < 20; i++) {
+            caller.call(() -> CompletableFuture.completedFuture("fast"), IO_IS_RETRYABLE, () -> false)
+                    .get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private ResilientCaller caller(int maxAttempts, double budget) {
+        return new ResilientCaller("test", executor, maxAttempts, 1, 10, 0.9, budget, budget);
+    }
+}
@@ -0,0 +1,62 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketTest {
+    private static final long START = 1_000_000_000L;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void startsFullAndAllowsBurst() {
+        TokenBucket bucket = new TokenBucket(1, 3, START);
+
+        assertThat(bucket.isFull(START)).isTrue();
+        for (int i = 0; i < 3; i++) {
+            assertThat(bucket.nanosUntilAvailable(START)).isZero();
+            bucket.take(START);
+        }
+        assertThat(bucket.nanosUntilAvailable(START)).isEqualTo(SECOND);
+    }
+
+    @Test
+    void refillsContinuously() {
+        TokenBucket bucket = new TokenBucket(2, 1, START);
+        bucket.take(START);
+
+        assertThat(bucket.nanosUntilAvailable(START + SECOND / 4)).isEqualTo(SECOND / 4);
+        assertThat(bucket.nanosUntilAvailable(START + SECOND / 2)).isZero();
+    }
+
+    @Test
+    void neverHoldsMoreThanCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 2, START);
+
+        assertThat(bucket.isFull(START + 100 * SECOND)).isTrue();
+        bucket.take(START + 100 * SECOND);
+        bucket.take(START + 100 * SECOND);
+        assertThat(bucket.nanosUntilAvailable(START + 100 * SECOND)).isEqualTo(SECOND / 10);
+    }
+
+    @Test
+    void owesTokensTakenBeyondEmpty() {
+        TokenBucket bucket = new TokenBucket(1, 1, START);
+        bucket.take(START);
+        bucket.take(START);
+
+        assertThat(bucket.nanosUntilAvailable(START)).isEqualTo(2 * SECOND);
+        assertThat(bucket.isFull(START + 2 * SECOND)).isTrue();
+    }
+
+    @Test
+    void worksAcrossNanoTimeOverflow() {
+        long beforeOverflow = Long.MAX_VALUE - SECOND / 2;
+        TokenBucket bucket = new TokenBucket(1, 1, beforeOverflow);
+        bucket.take(beforeOverflow);
+
+        assertThat(bucket.nanosUntilAvailable(beforeOverflow + SECOND)).isZero();
+    }
+}
@@ -0,0 +1,156 @@
+package com.serhiidrahan.daily_sochinenie_de.infrastructure;
+
+import com.serhiidrahan.daily_sochinenie_de.MySqlTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Two instances sharing one database, as in a cluster. Runs outside of test transactions,
+ * since each instance commits its leases for the other one to see.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class UserLeasesTest extends MySqlTest {
+    private static final long TELEGRAM_USER_ID = 42;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private UserLeases instanceA;
+    private UserLeases instanceB;
+
+    @BeforeEach
+    void createInstances() {
+        instanceA = leases("instance-a", 60);
+        instanceB = leases("instance-b", 60);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        executor.shutdownNow();
+        jdbcTemplate.update("DELETE FROM user_lease");
+        jdbcTemplate.update("DELETE FROM assignment");
+        jdbcTemplate.update("DELETE FROM user");
+    }
+
+    @Test
+    void secondInstanceWaitsUntilFirstReleases() throws Exception {
+        instanceA.acquire(TELEGRAM_USER_ID).get(5, TimeUnit.SECONDS);
+
+        CompletableFuture<Boolean> acquiredByB = instanceB.acquire(TELEGRAM_USER_ID);
+        Thread.sleep(300);
+        assertThat(acquiredByB).isNotDone();
+
+        instanceA.release(TELEGRAM_USER_ID);
+
+        assertThat(acquiredByB.get(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void toldWhenAnotherInstanceProcessedUserMeanwhile() throws Exception {
+        instanceA.acquire(TELEGRAM_USER_ID).get(5, TimeUnit.SECONDS);
+        instanceA.release(TELEGRAM_USER_ID);
+        assertThat(instanceA.acquire(TELEGRAM_USER_ID).get(5, TimeUnit.SECONDS)).isFalse();
+        instanceA.release(TELEGRAM_USER_ID);
+
+        instanceB.acquire(TELEGRAM_USER_ID).get(5, TimeUnit.SECONDS);
+        instanceB.release(TELEGRAM_USER_ID);
+
+        assertThat(instanceA.acquire(TELEGRAM_USER_ID).get(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void bothInstancesGetLeaseOfNewUserRacedFor() throws Exception {
+        for (long telegramUserId = 100; telegramUserId < 120; telegramUserId++) {
+            long userId = telegramUserId;
+            CountDownLatch start = new CountDownLatch(1);
+            CompletableFuture<Boolean> acquiredByA = CompletableFuture.supplyAsync(() -> acquireAfter(start, instanceA, userId), executor)
+                    .thenCompose(acquired -> acquired);
+            CompletableFuture<Boolean> acquiredByB = CompletableFuture.supplyAsync(() -> acquireAfter(start, instanceB, userId), executor)
+                    .thenCompose(acquired -> acquired);
+            start.countDown();
+
+            // Whoever got the new row's lease first hands it over, neither fails on a deadlock
+            CompletableFuture.anyOf(acquiredByA, acquiredByB).get(5, TimeUnit.SECONDS);
+            UserLeases first = acquiredByA.isDone() ? instanceA : instanceB;
+            first.release(userId);
+            assertThat(acquiredByA.get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(acquiredByB.get(5, TimeUnit.SECONDS)).isTrue();
+            (first == instanceA ? instanceB : instanceA).release(userId);
+        }
+    }
+
+    @Test
+    void takesOverLeaseOfCrashedInstance() throws Exception {
+        UserLeases crashing = leases("instance-c", 1);
+        crashing.acquire(TELEGRAM_USER_ID).get(5, TimeUnit.SECONDS);
+
+        // Never released nor renewed
+        assertThat(instanceB.acquire(TELEGRAM_USER_ID).get(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void lostLeaseIsntReleasedOverNewOwner() throws Exception {
+        UserLeases crashing = leases("instance-c", 1);
+        crashing.acquire(TELEGRAM_USER_ID).get(5, TimeUnit.SECONDS);
+        instanceB.acquire(TELEGRAM_USER_ID).get(5, TimeUnit.SECONDS);
+
+        crashing.release(TELEGRAM_USER_ID);
+
+        CompletableFuture<Boolean> acquiredByA = instanceA.acquire(TELEGRAM_USER_ID);
+        Thread.sleep(300);
+        assertThat(acquiredByA).isNotDone();
+    }
+
+    @Test
+    void userHasOneActiveAssignmentAtMost() {
+        jdbcTemplate.update("INSERT INTO user (telegram_id, chat_id, language) VALUES (?, ?, 'EN')",
+                TELEGRAM_USER_ID, TELEGRAM_USER_ID);
+        Long userId = jdbcTemplate.queryForObject("SELECT id FROM user WHERE telegram_id = ?", Long.class, TELEGRAM_USER_ID);
+        String insertAssignment = "INSERT INTO assignment (user_id, topic_id, state) SELECT ?, MIN(id), ? FROM assignment_topic";
+        jdbcTemplate.update(insertAssignment, userId, "DONE");
+        jdbcTemplate.update(insertAssignment, userId, "DONE");
+        jdbcTemplate.update(insertAssignment, userId, "ACTIVE");
+
+        // Two instances assigning a topic at once: the second one loses
+        assertThatThrownBy(() -> jdbcTemplate.update(insertAssignment, userId, "SUBMITTED"))
+                .isInstanceOf(DuplicateKeyException.class);
+    }
+
+    private static CompletableFuture<Boolean> acquireAfter(CountDownLatch start, UserLeases leases, long telegramUserId) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return leases.acquire(telegramUserId);
+    }
+
+    private UserLeases leases(String instanceId, long leaseSeconds) {
+        return new UserLeases(jdbcTemplate, transactionTemplate, executor, true, instanceId, leaseSeconds, 50,
+                100, 1);
+    }
+}
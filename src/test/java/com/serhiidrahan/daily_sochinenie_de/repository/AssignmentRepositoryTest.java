@@ -0,0 +1,98 @@
+package com.serhiidrahan.daily_sochinenie_de.repository;
+
+import com.serhiidrahan.daily_sochinenie_de.MySqlTest;
+import com.serhiidrahan.daily_sochinenie_de.entity.Assignment;
+import com.serhiidrahan.daily_sochinenie_de.entity.AssignmentTopic;
+import com.serhiidrahan.daily_sochinenie_de.entity.User;
+import com.serhiidrahan.daily_sochinenie_de.enums.AssignmentState;
+import com.serhiidrahan.daily_sochinenie_de.enums.Language;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The hot assignment reads must stay single statements that load neither users nor topics.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class AssignmentRepositoryTest extends MySqlTest {
+    private static final List<AssignmentState> ACTIVE_STATES = List.of(AssignmentState.ACTIVE, AssignmentState.SUBMITTED);
+
+    @Autowired
+    private AssignmentRepository assignmentRepository;
+    @Autowired
+    private AssignmentTopicRepository topicRepository;
+    @Autowired
+    private EntityManager entityManager;
+
+    private Statistics statistics;
+    private User user;
+    private Assignment activeAssignment;
+
+    @BeforeEach
+    void createAssignments() {
+        user = new User();
+        user.setTelegramId(42L);
+        user.setChatId(42L);
+        user.setLanguage(Language.EN);
+        entityManager.persist(user);
+
+        List<AssignmentTopic> topics = topicRepository.findAll();
+        for (int i = 0; i < 5; i++) {
+            AssignmentState state = i < 4 ? AssignmentState.DONE : AssignmentState.ACTIVE;
+            Assignment assignment = new Assignment();
+            assignment.setUser(user);
+            assignment.setTopic(topics.get(i));
+            assignment.setState(state);
+            entityManager.persist(assignment);
+            activeAssignment = assignment;
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void activeAssignmentIsReadWithOneStatementWithoutEntities() {
+        List<AssignmentRepository.ActiveAssignmentView> views =
+                assignmentRepository.findAssignmentsByUserIdAndStates(user.getId(), ACTIVE_STATES);
+
+        assertThat(views).singleElement().satisfies(view -> {
+            assertThat(view.getAssignmentId()).isEqualTo(activeAssignment.getId());
+            assertThat(view.getTelegramUserId()).isEqualTo(42L);
+        });
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+    }
+
+    @Test
+    void assignedTopicIdsAreReadWithOneStatementWithoutEntities() {
+        List<Long> topicIds = assignmentRepository.findAssignedTopicIdsByUserId(user.getId());
+
+        assertThat(topicIds).hasSize(5);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+    }
+
+    @Test
+    void loadingAnAssignmentLeavesUserAndTopicUnloaded() {
+        Assignment assignment = assignmentRepository.findById(activeAssignment.getId()).orElseThrow();
+
+        assertThat(Hibernate.isInitialized(assignment.getTopic())).isFalse();
+        assertThat(Hibernate.isInitialized(assignment.getUser())).isFalse();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,42 @@
+package com.serhiidrahan.daily_sochinenie_de.repository;
+
+import com.serhiidrahan.daily_sochinenie_de.MySqlTest;
+import com.serhiidrahan.daily_sochinenie_de.entity.CachedResponse;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class CachedResponseRepositoryTest extends MySqlTest {
+
+    @Autowired
+    private CachedResponseRepository cachedResponseRepository;
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    void deletesOnlyResponsesCreatedBeforeCutoff() {
+        insertResponse("fresh", 1);
+        insertResponse("expired", 200);
+
+        int deleted = cachedResponseRepository.deleteCreatedBefore(LocalDateTime.now().minusHours(168));
+
+        assertThat(deleted).isEqualTo(1);
+        assertThat(cachedResponseRepository.findAll()).extracting(CachedResponse::getCacheKey).containsExactly("fresh");
+    }
+
+    private void insertResponse(String cacheKey, int hoursAgo) {
+        entityManager.createNativeQuery("INSERT INTO cached_response (cache_key, response, creation_date) "
+                        + "VALUES (?, '{}', DATE_SUB(NOW(), INTERVAL ? HOUR))")
+                .setParameter(1, cacheKey)
+                .setParameter(2, hoursAgo)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,112 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import com.serhiidrahan.daily_sochinenie_de.dto.CatalogTopic;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AssignedTopicsTest {
+    private static final int TOPICS = 200;
+
+    @Test
+    void countsOnlyAssignedTopicsActiveInCatalog() {
+        TopicCatalog catalog = catalog(Set.of(70L, 150L));
+        // 70 is inactive, 500 isn't in the catalog
+        AssignedTopics assigned = new AssignedTopics(List.of(1L, 70L, 199L, 500L));
+
+        assertThat(assigned.remaining(catalog)).isEqualTo(TOPICS - 2 - 2);
+    }
+
+    @Test
+    void addingTopicCountsItOnce() {
+        TopicCatalog catalog = catalog(Set.of(70L));
+        AssignedTopics assigned = new AssignedTopics(List.of());
+
+        assigned.add(5, catalog);
+        assigned.add(5, catalog);
+        assigned.add(70, catalog);
+
+        assertThat(assigned.remaining(catalog)).isEqualTo(TOPICS - 1 - 1);
+    }
+
+    @Test
+    void recountsForRefreshedCatalog() {
+        AssignedTopics assigned = new AssignedTopics(List.of(1L, 199L));
+        assertThat(assigned.remaining(catalog(Set.of()))).isEqualTo(TOPICS - 2);
+
+        assertThat(assigned.remaining(catalog(Set.of(199L, 100L)))).isEqualTo(TOPICS - 2 - 1);
+    }
+
+    @Test
+    void picksEveryUnassignedActiveTopicOnce() {
+        TopicCatalog catalog = catalog(Set.of(63L, 64L, 128L));
+        AssignedTopics assigned = new AssignedTopics(List.of(1L, 65L, 127L, 200L));
+        Random random = new Random(3);
+        Set<Long> picked = new HashSet<>();
+
+        CatalogTopic topic;
+        while ((topic = assigned.pickUnassigned(catalog, random)) != null) {
+            assertThat(picked.add(topic.id())).isTrue();
+            assigned.add(topic.id(), catalog);
+        }
+
+        Set<Long> expected = new HashSet<>();
+        for (long id = 1; id <= TOPICS; id++) {
+            expected.add(id);
+        }
+        expected.removeAll(Set.of(63L, 64L, 128L, 1L, 65L, 127L, 200L));
+        assertThat(picked).isEqualTo(expected);
+        assertThat(assigned.remaining(catalog)).isZero();
+    }
+
+    @Test
+    void picksUnassignedTopicsUniformly() {
+        TopicCatalog catalog = catalog(Set.of());
+        List<Long> assignedIds = new ArrayList<>();
+        for (long id = 1; id <= TOPICS; id++) {
+            if (id != 3 && id != 64 && id != 190) {
+                assignedIds.add(id);
+            }
+        }
+        AssignedTopics assigned = new AssignedTopics(assignedIds);
+        Random random = new Random(11);
+        Map<Long, Integer> picks = new HashMap<>();
+
+        for (int i = 0; i < 30_000; i++) {
+            picks.merge(assigned.pickUnassigned(catalog, random).id(), 1, Integer::sum);
+        }
+
+        assertThat(picks).containsOnlyKeys(3L, 64L, 190L);
+        assertThat(picks.values()).allSatisfy(count -> assertThat(count).isBetween(9_500, 10_500));
+    }
+
+    @Test
+    void rejectsNegativeTopicIds() {
+        assertThatThrownBy(() -> new AssignedTopics(List.of(-1L))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * @return catalog of topics 1 to {@value TOPICS}, all active except the given ones
+     */
+    private static TopicCatalog catalog(Set<Long> inactive) {
+        Map<Long, CatalogTopic> topicsById = new HashMap<>();
+        BitSet active = new BitSet();
+        for (long id = 1; id <= TOPICS; id++) {
+            topicsById.put(id, new CatalogTopic(id, "Thema " + id, "Beschreibung", Map.of(), Map.of(), Map.of()));
+            if (!inactive.contains(id)) {
+                active.set((int) id);
+            }
+        }
+        return new TopicCatalog(topicsById, active);
+    }
+}
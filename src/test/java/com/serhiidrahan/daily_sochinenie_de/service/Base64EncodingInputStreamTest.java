@@ -0,0 +1,86 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Base64EncodingInputStreamTest {
+    // Around the chunk size of 3 KiB, where padding and chunk boundaries meet
+    private static final int[] SIZES = {0, 1, 2, 3, 4, 3071, 3072, 3073, 3074, 6144, 100_000};
+
+    @Test
+    void encodesLikeBase64Encoder() throws IOException {
+        for (int size : SIZES) {
+            byte[] bytes = randomBytes(size);
+
+            byte[] encoded;
+            try (InputStream in = new Base64EncodingInputStream(new ByteArrayInputStream(bytes))) {
+                encoded = in.readAllBytes();
+            }
+
+            assertThat(encoded).as("%d bytes", size).isEqualTo(Base64.getEncoder().encode(bytes));
+            assertThat((long) encoded.length).isEqualTo(Base64EncodingInputStream.encodedLength(size));
+        }
+    }
+
+    @Test
+    void encodesWhenReadByteByByteFromTricklingSource() throws IOException {
+        byte[] bytes = randomBytes(7000);
+        // Hands out at most one byte per read, like a slow network stream
+        InputStream trickling = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, 1));
+            }
+        };
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (InputStream in = new Base64EncodingInputStream(trickling)) {
+            int b;
+            while ((b = in.read()) != -1) {
+                encoded.write(b);
+            }
+            assertThat(in.read()).isEqualTo(-1);
+            assertThat(in.read(new byte[10], 0, 10)).isEqualTo(-1);
+        }
+
+        assertThat(encoded.toByteArray()).isEqualTo(Base64.getEncoder().encode(bytes));
+    }
+
+    @Test
+    void readsNothingIntoEmptyRange() throws IOException {
+        try (InputStream in = new Base64EncodingInputStream(new ByteArrayInputStream(randomBytes(10)))) {
+            assertThat(in.read(new byte[10], 5, 0)).isZero();
+        }
+    }
+
+    @Test
+    void closesSource() throws IOException {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        InputStream source = new ByteArrayInputStream(new byte[0]) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+
+        new Base64EncodingInputStream(source).close();
+
+        assertThat(closed).isTrue();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
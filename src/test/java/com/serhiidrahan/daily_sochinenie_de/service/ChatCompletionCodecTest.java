@@ -0,0 +1,118 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.serhiidrahan.daily_sochinenie_de.dto.SubmissionEvaluation;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChatCompletionCodecTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ChatCompletionCodec codec = new ChatCompletionCodec(new JsonFactory());
+
+    @Test
+    void encodesPromptsBeforeUserMessage() throws IOException {
+        ChatCompletionCodec.Request request = new ChatCompletionCodec.Request(
+                List.of(ChatCompletionCodec.prompt("Sei \"streng\"."), ChatCompletionCodec.prompt("Antworte kurz.")),
+                "Über München", false, true);
+
+        JsonNode json = objectMapper.readTree(codec.encode(request, "gpt-4o", true));
+
+        assertThat(json.get("model").asText()).isEqualTo("gpt-4o");
+        assertThat(json.get("stream").asBoolean()).isTrue();
+        assertThat(json.at("/response_format/type").asText()).isEqualTo("json_object");
+        assertThat(json.get("messages")).hasSize(3);
+        assertThat(json.at("/messages/0/role").asText()).isEqualTo("system");
+        assertThat(json.at("/messages/0/content").asText()).isEqualTo("Sei \"streng\".");
+        assertThat(json.at("/messages/1/content").asText()).isEqualTo("Antworte kurz.");
+        assertThat(json.at("/messages/2/role").asText()).isEqualTo("user");
+        assertThat(json.at("/messages/2/content").asText()).isEqualTo("Über München");
+    }
+
+    @Test
+    void leavesImageOutOfItsUrl() throws IOException {
+        ChatCompletionCodec.Request request = new ChatCompletionCodec.Request(
+                List.of(ChatCompletionCodec.prompt("Erkenne den Text.")), "Hinweis", true, false);
+
+        ChatCompletionCodec.ImageRequestBody body = codec.encodeWithImage(request, "gpt-4o-mini");
+        byte[] image = "QUJD".getBytes(StandardCharsets.US_ASCII);
+        byte[] json = new byte[body.beforeImage().length + image.length + body.afterImage().length];
+        System.arraycopy(body.beforeImage(), 0, json, 0, body.beforeImage().length);
+        System.arraycopy(image, 0, json, body.beforeImage().length, image.length);
+        System.arraycopy(body.afterImage(), 0, json, body.beforeImage().length + image.length, body.afterImage().length);
+
+        JsonNode userContent = objectMapper.readTree(json).at("/messages/1/content");
+        assertThat(userContent.at("/0/text").asText()).isEqualTo("Hinweis");
+        assertThat(userContent.at("/1/image_url/url").asText()).isEqualTo("data:image/jpeg;base64,QUJD");
+    }
+
+    @Test
+    void rejectsImageRequestWithoutImageEncoding() {
+        ChatCompletionCodec.Request request = new ChatCompletionCodec.Request(List.of(), null, true, false);
+
+        assertThatThrownBy(() -> codec.encode(request, "gpt-4o", false)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void readsMessageContentOfFirstChoice() throws IOException {
+        String response = """
+                {"id":"x","choices":[{"index":0,"message":{"role":"assistant","content":"  Gut gemacht!\\n"},
+                "logprobs":null}, {"message":{"content":"other"}}],"usage":{"prompt_tokens":10}}""";
+
+        assertThat(codec.readMessageContent(stream(response))).isEqualTo("Gut gemacht!");
+    }
+
+    @Test
+    void failsOnResponseWithoutContent() {
+        assertThatThrownBy(() -> codec.readMessageContent(stream("{\"choices\":[]}")))
+                .isInstanceOf(JsonParseException.class);
+    }
+
+    @Test
+    void readsErrorMessageOrNothing() throws IOException {
+        assertThat(codec.readErrorMessage(stream("{\"error\":{\"code\":1,\"message\":\"Rate limit\"}}")))
+                .isEqualTo("Rate limit");
+        assertThat(codec.readErrorMessage(stream("<html>Bad gateway</html>"))).isEmpty();
+    }
+
+    @Test
+    void readsDeltaContentOfChunk() throws IOException {
+        assertThat(codec.readDeltaContent("{\"choices\":[{\"delta\":{\"content\":\"Hal\"}}]}")).isEqualTo("Hal");
+        assertThat(codec.readDeltaContent("{\"choices\":[{\"delta\":{},\"finish_reason\":\"stop\"}]}")).isNull();
+    }
+
+    @Test
+    void readsEvaluationAndSkipsUnknownFields() throws IOException {
+        String content = """
+                {"notes":{"a":[1,{"text":"wrong"}]},"text":" Mein Tag ","language":"de","related":true,
+                "feedback":" Sehr gut. "}""";
+
+        assertThat(codec.readEvaluation(content, null))
+                .isEqualTo(new SubmissionEvaluation("Mein Tag", "de", true, "Sehr gut."));
+        assertThat(codec.readEvaluation(content, "submitted").text()).isEqualTo("submitted");
+    }
+
+    @Test
+    void readsNonScalarKnownFieldsAsEmptyAndGoesOn() throws IOException {
+        String content = """
+                {"feedback":["Gut.",{"related":false}],"related":{"value":false},"text":{"language":"en"},
+                "language":"de"}""";
+
+        assertThat(codec.readEvaluation(content, null))
+                .isEqualTo(new SubmissionEvaluation("", "de", false, ""));
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,106 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import com.serhiidrahan.daily_sochinenie_de.enums.OpenAITask;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ModelRouterTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(5000);
+
+    @Test
+    void routesToPrimaryModelByDefault() {
+        ModelRouter router = router(3600);
+
+        assertThat(router.route(OpenAITask.OCR)).isEqualTo(new ModelRouter.Route(OpenAITask.OCR, "ocr-primary", false));
+        assertThat(router.route(OpenAITask.FEEDBACK).model()).isEqualTo("feedback-primary");
+        assertThat(router.primaryModel(OpenAITask.VALIDATION)).isEqualTo("validation-primary");
+    }
+
+    @Test
+    void fallsBackWhilePrimaryIsTooSlow() {
+        ModelRouter router = router(3600);
+
+        router.record(router.route(OpenAITask.FEEDBACK), FAST, false);
+        assertThat(router.route(OpenAITask.FEEDBACK).fallback()).isFalse();
+        router.record(router.route(OpenAITask.FEEDBACK), SLOW * 10, false);
+
+        assertThat(router.route(OpenAITask.FEEDBACK))
+                .isEqualTo(new ModelRouter.Route(OpenAITask.FEEDBACK, "feedback-fallback", true));
+        // Other tasks keep their primary model
+        assertThat(router.route(OpenAITask.OCR).fallback()).isFalse();
+    }
+
+    @Test
+    void fallsBackWhenPrimaryFailsTooOften() {
+        ModelRouter router = router(3600);
+
+        for (int i = 0; i < 4; i++) {
+            router.record(router.route(OpenAITask.VALIDATION), FAST, true);
+        }
+        // Too few outcomes to judge yet
+        assertThat(router.route(OpenAITask.VALIDATION).fallback()).isFalse();
+        router.record(router.route(OpenAITask.VALIDATION), FAST, true);
+
+        assertThat(router.route(OpenAITask.VALIDATION).fallback()).isTrue();
+    }
+
+    @Test
+    void toleratesFailuresUnderThreshold() {
+        ModelRouter router = router(3600);
+
+        for (int i = 0; i < 20; i++) {
+            router.record(router.route(OpenAITask.VALIDATION), FAST, i % 5 == 4);
+        }
+
+        assertThat(router.route(OpenAITask.VALIDATION).fallback()).isFalse();
+    }
+
+    @Test
+    void triesPrimaryAgainAfterCooldown() {
+        ModelRouter router = router(0);
+
+        router.record(router.route(OpenAITask.FEEDBACK), SLOW * 10, false);
+
+        assertThat(router.route(OpenAITask.FEEDBACK).fallback()).isFalse();
+        // The slow request before the fallback doesn't count anymore
+        router.record(router.route(OpenAITask.FEEDBACK), FAST, false);
+        assertThat(router.route(OpenAITask.FEEDBACK).fallback()).isFalse();
+    }
+
+    @Test
+    void ignoresOutcomesOfFallbackModel() {
+        ModelRouter router = router(3600);
+        ModelRouter.Route fallback = new ModelRouter.Route(OpenAITask.OCR, "ocr-fallback", true);
+
+        for (int i = 0; i < 10; i++) {
+            router.record(fallback, SLOW * 10, true);
+        }
+
+        assertThat(router.route(OpenAITask.OCR).fallback()).isFalse();
+    }
+
+    @Test
+    void neverFallsBackToSameModel() {
+        ModelRouter router = new ModelRouter(new SimpleMeterRegistry(),
+                "same", "same", 1000, "same", "same", 1000, "same", "same", 1000, 0.3, 3600);
+
+        for (int i = 0; i < 10; i++) {
+            router.record(router.route(OpenAITask.OCR), SLOW * 10, true);
+        }
+
+        assertThat(router.route(OpenAITask.OCR)).isEqualTo(new ModelRouter.Route(OpenAITask.OCR, "same", false));
+    }
+
+    private static ModelRouter router(long cooldownSeconds) {
+        return new ModelRouter(new SimpleMeterRegistry(),
+                "ocr-primary", "ocr-fallback", 10_000,
+                "validation-primary", "validation-fallback", 5_000,
+                "feedback-primary", "feedback-fallback", 5_000,
+                0.3, cooldownSeconds);
+    }
+}
@@ -0,0 +1,93 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.PhotoSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PhotoPreparationServiceTest {
+    private final PhotoPreparationService service = new PhotoPreparationService(1280, 1600, true, 0.85f);
+    private final Path directory = createDirectory();
+
+    @AfterEach
+    void deleteFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void selectsSmallestLegibleSize() {
+        PhotoSize small = photo(320, 240);
+        PhotoSize medium = photo(1280, 960);
+        PhotoSize large = photo(2560, 1920);
+
+        assertThat(service.selectPhoto(List.of(small, large, medium))).isSameAs(medium);
+        assertThat(service.selectPhoto(List.of(small, photo(800, 600)))).isEqualTo(photo(800, 600));
+    }
+
+    @Test
+    void downscalesToGrayscale() throws IOException {
+        File file = writeImage(3200, 2400, BufferedImage.TYPE_INT_RGB);
+
+        service.prepare(file);
+
+        BufferedImage prepared = ImageIO.read(file);
+        assertThat(prepared.getWidth()).isEqualTo(1600);
+        assertThat(prepared.getHeight()).isEqualTo(1200);
+        assertThat(prepared.getType()).isEqualTo(BufferedImage.TYPE_BYTE_GRAY);
+        assertThat(directory).isDirectoryNotContaining("glob:**/prepared-*");
+    }
+
+    @Test
+    void leavesSmallGrayscaleImageAsItIs() throws IOException {
+        File file = writeImage(800, 600, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] original = Files.readAllBytes(file.toPath());
+
+        service.prepare(file);
+
+        assertThat(Files.readAllBytes(file.toPath())).isEqualTo(original);
+    }
+
+    @Test
+    void leavesUnreadableFileAsItIs() throws IOException {
+        File file = directory.resolve("photo.jpg").toFile();
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+
+        service.prepare(file);
+
+        assertThat(Files.readAllBytes(file.toPath())).containsExactly(1, 2, 3);
+    }
+
+    private File writeImage(int width, int height, int type) throws IOException {
+        File file = directory.resolve("photo.jpg").toFile();
+        ImageIO.write(new BufferedImage(width, height, type), "jpeg", file);
+        return file;
+    }
+
+    private static PhotoSize photo(int width, int height) {
+        return PhotoSize.builder().fileId(width + "x" + height).fileUniqueId(width + "x" + height)
+                .width(width).height(height).build();
+    }
+
+    private static Path createDirectory() {
+        try {
+            return Files.createTempDirectory("photo-test-");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
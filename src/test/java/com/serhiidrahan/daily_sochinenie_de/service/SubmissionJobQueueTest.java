@@ -0,0 +1,105 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import com.serhiidrahan.daily_sochinenie_de.MySqlTest;
+import com.serhiidrahan.daily_sochinenie_de.dto.SubmissionJob;
+import com.serhiidrahan.daily_sochinenie_de.enums.SubmissionKind;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class SubmissionJobQueueTest extends MySqlTest {
+    private static final long TELEGRAM_USER_ID = 42;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private SubmissionJobQueue queue;
+    private long assignmentId;
+
+    @BeforeEach
+    void createAssignment() {
+        jdbcTemplate.update("INSERT INTO user (telegram_id, chat_id, language) VALUES (?, ?, 'EN')",
+                TELEGRAM_USER_ID, TELEGRAM_USER_ID);
+        jdbcTemplate.update("INSERT INTO assignment (user_id, topic_id, state) "
+                + "SELECT u.id, MIN(t.id), 'ACTIVE' FROM user u, assignment_topic t WHERE u.telegram_id = ? GROUP BY u.id",
+                TELEGRAM_USER_ID);
+        assignmentId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM assignment", Long.class);
+        queue = queue("instance-a");
+    }
+
+    @Test
+    void queuedSubmissionIsClaimedByReceivingInstance() {
+        SubmissionJob job = queue.enqueue(TELEGRAM_USER_ID, TELEGRAM_USER_ID, assignmentId, SubmissionKind.TEXT,
+                "Mein Hobby ist Malen.", null);
+
+        assertThat(job.attempts()).isEqualTo(1);
+        assertThat(queue.isRunningAny()).isTrue();
+        assertThat(queue("instance-b").claim(10).runnable()).isEmpty();
+
+        queue.finish(job, null);
+
+        assertThat(queue.isRunningAny()).isFalse();
+        assertThat(queue.backlog()).isZero();
+    }
+
+    @Test
+    void failedSubmissionIsPutBackForWorkers() {
+        SubmissionJob job = queue.enqueue(TELEGRAM_USER_ID, TELEGRAM_USER_ID, assignmentId, SubmissionKind.TEXT,
+                "Mein Hobby ist Malen.", null);
+
+        queue.finish(job, new IllegalStateException("OpenAI is down"));
+
+        assertThat(jdbcTemplate.queryForObject("SELECT state FROM submission_job WHERE id = ?", String.class, job.id()))
+                .isEqualTo("PENDING");
+        assertThat(queue.isRunningAny()).isFalse();
+
+        assertThat(queue("instance-b").claim(10).runnable()).singleElement().satisfies(retried -> {
+            assertThat(retried.id()).isEqualTo(job.id());
+            assertThat(retried.attempts()).isEqualTo(2);
+        });
+    }
+
+    @Test
+    void deletingAssignmentDeletesItsJobs() {
+        queue.enqueue(TELEGRAM_USER_ID, TELEGRAM_USER_ID, assignmentId, SubmissionKind.TEXT, "Mein Hobby ist Malen.", null);
+        insertFailedJob(1);
+
+        jdbcTemplate.update("DELETE FROM assignment WHERE id = ?", assignmentId);
+
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM submission_job", Integer.class)).isZero();
+    }
+
+    @Test
+    void purgesOnlyFailedJobsPastRetention() {
+        queue.enqueue(TELEGRAM_USER_ID, TELEGRAM_USER_ID, assignmentId, SubmissionKind.TEXT, "Mein Hobby ist Malen.", null);
+        insertFailedJob(1);
+        insertFailedJob(48);
+
+        queue.purgeFailed();
+
+        assertThat(jdbcTemplate.queryForList("SELECT state FROM submission_job ORDER BY id", String.class))
+                .containsExactly("RUNNING", "FAILED");
+    }
+
+    private void insertFailedJob(int hoursAgo) {
+        jdbcTemplate.update("INSERT INTO submission_job (telegram_user_id, chat_id, assignment_id, kind, payload, state, "
+                        + "attempts, last_modified_date) VALUES (?, ?, ?, 'TEXT', '', 'FAILED', 3, DATE_SUB(NOW(), INTERVAL ? HOUR))",
+                TELEGRAM_USER_ID, TELEGRAM_USER_ID, assignmentId, hoursAgo);
+    }
+
+    private SubmissionJobQueue queue(String instanceId) {
+        return new SubmissionJobQueue(jdbcTemplate, transactionTemplate, new SimpleMeterRegistry(), instanceId,
+                10, 3, 60, 24);
+    }
+}
@@ -0,0 +1,190 @@
+package com.serhiidrahan.daily_sochinenie_de.service;
+
+import com.serhiidrahan.daily_sochinenie_de.dto.CatalogTopic;
+import com.serhiidrahan.daily_sochinenie_de.entity.AssignmentTopic;
+import com.serhiidrahan.daily_sochinenie_de.enums.PreValidationVerdict;
+import com.serhiidrahan.daily_sochinenie_de.repository.AssignmentTopicRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the pre-validation on real essays, with the model trained on the topics shipped in the migrations.
+ */
+class SubmissionPreValidatorTest {
+    private static final String TOPICS_MIGRATION = "/db/migration/V2__add_assignment_topics.sql";
+
+    private static final String GERMAN_ON_TOPIC = """
+            Liebe Anna,
+            heute möchte ich dir von meinem Hobby erzählen. Mein Hobby ist Malen. Ich habe damit angefangen, \
+            als ich zwölf Jahre alt war, weil meine Großmutter mir einen Farbkasten geschenkt hat. Ich benutze \
+            Pinsel, Aquarellfarben und dickes Papier. Besonders mag ich daran, dass ich beim Malen ganz ruhig werde. \
+            Mein Hobby hilft mir, nach der Arbeit zu entspannen. Was ist dein Hobby?
+            Viele Grüße, Olga""";
+
+    // The same letter without any word of the topic's title, keywords or description
+    private static final String GERMAN_PARAPHRASE = """
+            Hallo Lukas,
+            in meiner Freizeit sitze ich am liebsten mit Farben und Leinwand am Fenster. Vor fünf Jahren bekam ich \
+            von meiner Tante einen Kasten Ölfarben geschenkt, seitdem lässt mich das Malen nicht mehr los. Meistens \
+            male ich Landschaften, manchmal auch Porträts von Freunden. Dabei vergesse ich völlig die Zeit, und der \
+            Stress der Woche verschwindet. Außerdem lerne ich, geduldig zu sein und genau hinzuschauen. \
+            Schreib mir bald, womit du deine Wochenenden verbringst!
+            Liebe Grüße, Marta""";
+
+    private static final String GERMAN_RARE_WORDS = """
+            Gestern Abend saß ich im Wohnzimmer, draußen regnete es unaufhörlich. Plötzlich klingelte das Telefon: \
+            mein Schwager Jürgen, Zahnarzt in Würzburg, erzählte begeistert vom Schrebergarten seines Nachbarn, \
+            von Kürbissen, Zucchini, Stachelbeeren und Radieschen. Anschließend schwärmte er stundenlang über \
+            Mülltrennung, Bürokratie, Steuererklärungen und Kfz-Versicherungen. Schließlich schlief ich erschöpft \
+            auf dem Sofa ein, während im Fernsehen ein Krimi lief.""";
+
+    private static final String ENGLISH = """
+            Dear Anna,
+            I want to tell you about my hobby. My hobby is painting. I started when I was twelve years old, because \
+            my grandmother gave me a box of watercolours. I use brushes, paints and thick paper. What I especially \
+            like about it is that painting makes me calm. It helps me relax after work. What is your hobby?
+            Best wishes, Olga""";
+
+    private static final String RUSSIAN = """
+            Дорогая Анна,
+            хочу рассказать тебе о своём хобби. Моё хобби — рисование. Я начала рисовать, когда мне было двенадцать \
+            лет, потому что бабушка подарила мне коробку акварельных красок. Я использую кисти, краски и плотную \
+            бумагу. Больше всего мне нравится, что во время рисования я успокаиваюсь. Какое у тебя хобби?
+            С любовью, Ольга""";
+
+    private CatalogTopic hobby;
+    private AssignmentTopicService assignmentTopicService;
+
+    @BeforeEach
+    void loadTopics() throws IOException {
+        assignmentTopicService = topicService(readTopics());
+        hobby = assignmentTopicService.getTopic(1L);
+        assertThat(hobby.topicDe()).isEqualTo("Mein Hobby");
+    }
+
+    @Test
+    void acceptsGermanEssayOnTopic() {
+        assertThat(validator(true).check(GERMAN_ON_TOPIC, hobby)).isEqualTo(PreValidationVerdict.ACCEPT);
+    }
+
+    @Test
+    void leavesGermanParaphraseToOpenAi() {
+        assertThat(GERMAN_PARAPHRASE.length()).isGreaterThan(300);
+
+        assertThat(validator(true).check(GERMAN_PARAPHRASE, hobby)).isEqualTo(PreValidationVerdict.UNDECIDED);
+    }
+
+    @Test
+    void leavesGermanEssayOnAnotherTopicToOpenAi() {
+        assertThat(validator(true).check(GERMAN_RARE_WORDS, hobby)).isEqualTo(PreValidationVerdict.UNDECIDED);
+    }
+
+    @Test
+    void takesGermanWithWordsUnseenInTrainingForGerman() {
+        // Far less English than German to train on, so that unseen trigrams would be likelier in English
+        // if each language was smoothed on its own. Any lead is enough to reject here
+        AssignmentTopic topic = topic(1, "Mein Hobby", "Напишите о хобби.", "Write about your hobby.",
+                GERMAN_ON_TOPIC, "Напишите письмо о хобби.", "Write a letter.", "", "", "");
+        assignmentTopicService = topicService(List.of(topic));
+
+        assertThat(validator(0.01, true).check(GERMAN_RARE_WORDS, assignmentTopicService.getTopic(1L)))
+                .isEqualTo(PreValidationVerdict.UNDECIDED);
+    }
+
+    @Test
+    void rejectsOtherLanguagesOnlyIfEnabled() {
+        assertThat(validator(true).check(ENGLISH, hobby)).isEqualTo(PreValidationVerdict.REJECT);
+        assertThat(validator(true).check(RUSSIAN, hobby)).isEqualTo(PreValidationVerdict.REJECT);
+
+        assertThat(validator(false).check(ENGLISH, hobby)).isEqualTo(PreValidationVerdict.UNDECIDED);
+        assertThat(validator(false).check(RUSSIAN, hobby)).isEqualTo(PreValidationVerdict.UNDECIDED);
+    }
+
+    @Test
+    void leavesShortTextToOpenAi() {
+        assertThat(validator(true).check("Mein Hobby ist Malen.", hobby)).isEqualTo(PreValidationVerdict.UNDECIDED);
+    }
+
+    private SubmissionPreValidator validator(boolean rejectOtherLanguages) {
+        return validator(0.5, rejectOtherLanguages);
+    }
+
+    private SubmissionPreValidator validator(double languageMargin, boolean rejectOtherLanguages) {
+        return new SubmissionPreValidator(assignmentTopicService, new SimpleMeterRegistry(), true, languageMargin, 30,
+                3, rejectOtherLanguages);
+    }
+
+    private static AssignmentTopicService topicService(List<AssignmentTopic> topics) {
+        AssignmentTopicRepository topicRepository = mock(AssignmentTopicRepository.class);
+        when(topicRepository.findAll()).thenReturn(topics);
+        LocalizedMessagesService localizedMessagesService = mock(LocalizedMessagesService.class);
+        when(localizedMessagesService.assignmentText(any(), any(), any(), any())).thenReturn("");
+        AssignmentTopicService topicService = new AssignmentTopicService(topicRepository, localizedMessagesService);
+        topicService.refresh();
+        return topicService;
+    }
+
+    /**
+     * @return the topics inserted by the migration, with ids in the order of insertion
+     */
+    private static List<AssignmentTopic> readTopics() throws IOException {
+        String sql;
+        try (InputStream in = SubmissionPreValidatorTest.class.getResourceAsStream(TOPICS_MIGRATION)) {
+            sql = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        List<String> values = new ArrayList<>();
+        StringBuilder value = null;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (value == null) {
+                if (c == '\'') {
+                    value = new StringBuilder();
+                }
+            } else if (c == '\'' && i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+                value.append('\'');
+                i++;
+            } else if (c == '\'') {
+                values.add(value.toString().replace("\\n", "\n"));
+                value = null;
+            } else {
+                value.append(c);
+            }
+        }
+
+        List<AssignmentTopic> topics = new ArrayList<>();
+        for (int i = 0; i + 9 <= values.size(); i += 9) {
+            topics.add(topic(topics.size() + 1, values.get(i), values.get(i + 1), values.get(i + 2), values.get(i + 3),
+                    values.get(i + 4), values.get(i + 5), values.get(i + 6), values.get(i + 7), values.get(i + 8)));
+        }
+        return topics;
+    }
+
+    private static AssignmentTopic topic(long id, String topicDe, String topicRu, String topicEn,
+                                         String descriptionDe, String descriptionRu, String descriptionEn,
+                                         String keywordsDe, String keywordsRu, String keywordsEn) {
+        AssignmentTopic topic = new AssignmentTopic();
+        topic.setId(id);
+        topic.setTopicDe(topicDe);
+        topic.setTopicRu(topicRu);
+        topic.setTopicEn(topicEn);
+        topic.setDescriptionDe(descriptionDe);
+        topic.setDescriptionRu(descriptionRu);
+        topic.setDescriptionEn(descriptionEn);
+        topic.setKeywordsDe(keywordsDe);
+        topic.setKeywordsRu(keywordsRu);
+        topic.setKeywordsEn(keywordsEn);
+        return topic;
+    }
+}